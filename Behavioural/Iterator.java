@@ -1,5 +1,31 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+import java.util.Random;
+import java.util.Spliterator;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import java.util.function.IntConsumer;
+import java.util.function.LongConsumer;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 // ITERATOR PATTERN
 // Provides sequential access to elements of an aggregate without exposing its underlying representation.
@@ -10,32 +36,311 @@ interface Iterator<T> {
     boolean hasNext();
     T current();
     void next();
+
+    // BULK OPERATIONS
+    // one call per chunk instead of three per element
+    // implementations backed by arrays should override these with straight copies
+
+    // copies up to buffer.length elements into buffer and moves past them
+    // returns how many were copied (0 once exhausted)
+    default int nextBatch(T[] buffer) {
+        int n = 0;
+        for (; n < buffer.length && hasNext(); next())
+            buffer[n++] = current();
+        return n;
+    }
+
+    default void forEachRemaining(Consumer<? super T> action) {
+        for (; hasNext(); next())
+            action.accept(current());
+    }
+}
+
+// primitive specialisations - no boxing for numeric aggregates
+interface IntIterator {
+    boolean hasNext();
+    int current();
+    void next();
+
+    default int nextBatch(int[] buffer) {
+        int n = 0;
+        for (; n < buffer.length && hasNext(); next())
+            buffer[n++] = current();
+        return n;
+    }
+
+    default void forEachRemaining(IntConsumer action) {
+        for (; hasNext(); next())
+            action.accept(current());
+    }
+}
+
+interface LongIterator {
+    boolean hasNext();
+    long current();
+    void next();
+
+    default int nextBatch(long[] buffer) {
+        int n = 0;
+        for (; n < buffer.length && hasNext(); next())
+            buffer[n++] = current();
+        return n;
+    }
+
+    default void forEachRemaining(LongConsumer action) {
+        for (; hasNext(); next())
+            action.accept(current());
+    }
+}
+
+// notified of every change to a BrowseHistory, so derived structures can keep up incrementally
+interface HistoryListener {
+    void added(String url);
+    // popped, or evicted by a bounded history
+    void removed(String url);
 }
 
 // data we're working with - the history of a hypothetical browser
 class BrowseHistory {
-    // list of urls
-    private List<String> urls = new ArrayList<>();
+    private static final int INITIAL_CAPACITY = 16;
+
+    // circular buffer of urls, oldest first starting at head
+    // grows by doubling until it reaches maxDepth, after which the oldest entries are overwritten
+    private String[] urls;
+    private int head;
+    private int size;
+    private final int maxDepth;
+    private final List<HistoryListener> listeners = new ArrayList<>();
 
-    // add to the list
+    // unbounded (well, up to what an array can hold)
+    public BrowseHistory() {
+        this(Integer.MAX_VALUE - 8);
+    }
+
+    // keeps at most maxDepth urls, dropping the oldest ones
+    public BrowseHistory(int maxDepth) {
+        if (maxDepth <= 0)
+            throw new IllegalArgumentException("maxDepth must be positive");
+        this.maxDepth = maxDepth;
+        urls = new String[Math.min(INITIAL_CAPACITY, maxDepth)];
+    }
+
+    // add to the end - O(1) amortised
     public void push(String url) {
-        urls.add(url);
+        if (size == urls.length) {
+            if (size < maxDepth) {
+                grow();
+            } else {
+                // full - overwrite the oldest entry
+                var evicted = urls[head];
+                urls[head] = url;
+                head = (head + 1) % urls.length;
+                for (var listener : listeners) {
+                    listener.removed(evicted);
+                    listener.added(url);
+                }
+                return;
+            }
+        }
+        urls[(head + size) % urls.length] = url;
+        ++size;
+        for (var listener : listeners)
+            listener.added(url);
     }
 
-    // remove the last item from the list
+    // remove the last item - O(1), and always the last one even if the url repeats
     public String pop() {
-        var lastIndex = urls.size() - 1;
-        var lastUrl = urls.get(lastIndex);
-        urls.remove(lastUrl);
+        if (size == 0)
+            throw new NoSuchElementException("History is empty");
+
+        int lastIndex = (head + size - 1) % urls.length;
+        var lastUrl = urls[lastIndex];
+        // let go of the reference
+        urls[lastIndex] = null;
+        --size;
+        for (var listener : listeners)
+            listener.removed(lastUrl);
 
         return lastUrl;
     }
 
+    public void addListener(HistoryListener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(HistoryListener listener) {
+        listeners.remove(listener);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int getMaxDepth() {
+        return maxDepth;
+    }
+
+    // url at a logical position (0 = oldest)
+    String get(int index) {
+        if (index < 0 || index >= size)
+            throw new IndexOutOfBoundsException(index);
+        return urls[(head + index) % urls.length];
+    }
+
+    // doubles the capacity (capped at maxDepth), unrolling the ring so head is back at 0
+    private void grow() {
+        int newCapacity = (int) Math.min((long) urls.length * 2, maxDepth);
+        var newUrls = new String[newCapacity];
+        int firstPart = Math.min(size, urls.length - head);
+        System.arraycopy(urls, head, newUrls, 0, firstPart);
+        System.arraycopy(urls, 0, newUrls, firstPart, size - firstPart);
+        urls = newUrls;
+        head = 0;
+    }
+
     // return an iterator over the internal representation of the url list
-    public Iterator createIterator() {
+    public Iterator<String> createIterator() {
         return new ListIterator(this);
     }
 
+    // random access over the history - O(1) seeks, stepping both ways and paging
+    public Cursor createCursor() {
+        return new Cursor();
+    }
+
+    // a position in the history, from -1 (before the oldest) to size (after the newest)
+    // as an Iterator, hasNext() means the cursor is on an entry, so it also drives reverse walks
+    class Cursor implements Iterator<String> {
+        private int position;
+
+        public Cursor seek(int position) {
+            if (position < -1 || position > size)
+                throw new IndexOutOfBoundsException(position);
+            this.position = position;
+            return this;
+        }
+
+        // 0 = the newest entry
+        public Cursor seekFromEnd(int offset) {
+            return seek(size - 1 - offset);
+        }
+
+        public int position() {
+            return position;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return position >= 0 && position < size;
+        }
+
+        public boolean hasPrevious() {
+            return position > 0;
+        }
+
+        @Override
+        public String current() {
+            return get(position);
+        }
+
+        @Override
+        public void next() {
+            if (position < size)
+                ++position;
+        }
+
+        public void previous() {
+            if (position >= 0)
+                --position;
+        }
+
+        // up to count entries from the cursor on, moving past them
+        public List<String> nextPage(int count) {
+            int from = Math.max(position, 0);
+            int to = Math.min(from + count, size);
+            var page = new ArrayList<String>(Math.max(to - from, 0));
+            for (int i = from; i < to; ++i)
+                page.add(urls[(head + i) % urls.length]);
+            position = Math.max(to, position);
+            return page;
+        }
+
+        // up to count entries before the cursor (oldest first), moving to the first of them
+        public List<String> previousPage(int count) {
+            int to = Math.min(position, size);
+            int from = Math.max(to - count, 0);
+            var page = new ArrayList<String>(Math.max(to - from, 0));
+            for (int i = from; i < to; ++i)
+                page.add(urls[(head + i) % urls.length]);
+            position = Math.min(from, position);
+            return page;
+        }
+    }
+
+    // splittable counterpart of the iterator, for parallel streams
+    // (like the iterator, it reads the live buffer - don't modify the history while streaming)
+    public Spliterator<String> spliterator() {
+        return new HistorySpliterator(0, size);
+    }
+
+    public Stream<String> stream() {
+        return StreamSupport.stream(spliterator(), false);
+    }
+
+    public Stream<String> parallelStream() {
+        return StreamSupport.stream(spliterator(), true);
+    }
+
+    // covers the logical positions [index, fence) and splits them in half,
+    // so parallel work is balanced regardless of where the ring wraps
+    class HistorySpliterator implements Spliterator<String> {
+        private int index;
+        private final int fence;
+
+        HistorySpliterator(int index, int fence) {
+            this.index = index;
+            this.fence = fence;
+        }
+
+        @Override
+        public boolean tryAdvance(Consumer<? super String> action) {
+            if (index >= fence)
+                return false;
+            action.accept(urls[(head + index++) % urls.length]);
+            return true;
+        }
+
+        @Override
+        public void forEachRemaining(Consumer<? super String> action) {
+            // tight loop without the per-element bounds checks of tryAdvance
+            var buffer = urls;
+            int start = head;
+            for (int i = index; i < fence; ++i)
+                action.accept(buffer[(start + i) % buffer.length]);
+            index = fence;
+        }
+
+        @Override
+        public Spliterator<String> trySplit() {
+            int mid = (index + fence) >>> 1;
+            if (mid <= index)
+                return null;
+            var prefix = new HistorySpliterator(index, mid);
+            index = mid;
+            return prefix;
+        }
+
+        @Override
+        public long estimateSize() {
+            return fence - index;
+        }
+
+        @Override
+        public int characteristics() {
+            return ORDERED | SIZED | SUBSIZED;
+        }
+    }
+
     // concrete implementation of the iterator interface
     // nested class so it can access the list of urls.
     // This is the only part that should be concerned with how to iterate over a BrowseHistory object
@@ -53,13 +358,13 @@ class BrowseHistory {
         // iteration can continue if we haven't reached the last element
         @Override
         public boolean hasNext() {
-            return (index < history.urls.size());
+            return (index < history.size());
         }
 
         // element at the current index
         @Override
         public String current() {
-            return history.urls.get(index);
+            return history.get(index);
         }
 
         // increments the index
@@ -67,11 +372,855 @@ class BrowseHistory {
         public void next() {
             ++index;
         }
+
+        // copies straight out of the ring - at most two arraycopies
+        @Override
+        public int nextBatch(String[] buffer) {
+            int n = Math.min(buffer.length, history.size - index);
+            if (n <= 0)
+                return 0;
+            int start = (history.head + index) % history.urls.length;
+            int firstPart = Math.min(n, history.urls.length - start);
+            System.arraycopy(history.urls, start, buffer, 0, firstPart);
+            System.arraycopy(history.urls, 0, buffer, firstPart, n - firstPart);
+            index += n;
+            return n;
+        }
+
+        @Override
+        public void forEachRemaining(Consumer<? super String> action) {
+            var buffer = history.urls;
+            for (; index < history.size; ++index)
+                action.accept(buffer[(history.head + index) % buffer.length]);
+        }
+    }
+}
+
+// membership and prefix index kept alongside a BrowseHistory
+// a hash map answers "was this visited?" in O(1), a sorted set answers prefix queries
+// in O(log n + matches) - both are updated on every push and pop instead of walking the history
+class HistoryIndex implements HistoryListener {
+    // visits per url, as the same url can be in the history several times
+    private final Map<String, Integer> counts = new HashMap<>();
+    // distinct urls in order
+    private final NavigableSet<String> sorted = new TreeSet<>();
+
+    // indexes what's already there, then follows the changes
+    public HistoryIndex(BrowseHistory history) {
+        for (Iterator<String> i = history.createIterator(); i.hasNext(); i.next())
+            added(i.current());
+        history.addListener(this);
+    }
+
+    @Override
+    public void added(String url) {
+        if (counts.merge(url, 1, Integer::sum) == 1)
+            sorted.add(url);
+    }
+
+    @Override
+    public void removed(String url) {
+        // the last visit gone - forget the url
+        if (counts.computeIfPresent(url, (key, count) -> count == 1 ? null : count - 1) == null)
+            sorted.remove(url);
+    }
+
+    public boolean contains(String url) {
+        return counts.containsKey(url);
+    }
+
+    public int visitCount(String url) {
+        return counts.getOrDefault(url, 0);
+    }
+
+    public int distinctCount() {
+        return counts.size();
+    }
+
+    // distinct urls starting with the prefix, in order
+    public List<String> withPrefix(String prefix) {
+        return complete(prefix, Integer.MAX_VALUE);
+    }
+
+    // autocomplete - the first few matches only
+    public List<String> complete(String prefix, int limit) {
+        var matches = new ArrayList<String>();
+        for (var url : sorted.tailSet(prefix, true)) {
+            if (!url.startsWith(prefix) || matches.size() == limit)
+                break;
+            matches.add(url);
+        }
+        return matches;
+    }
+}
+
+// streaming "most visited" tracker for a BrowseHistory
+// a count-min sketch estimates every url's visits in fixed memory (never under, over by at most
+// epsilon * total visits with probability 1 - delta), and a small heap keeps the k heaviest urls
+// counts visits as they happen - a pop doesn't undo a visit
+// (a visit to a tracked url re-sorts it with PriorityQueue.remove, which is O(k) - fine for a short top list)
+class TopVisitedTracker implements HistoryListener {
+    private final int k;
+    private final int width;
+    private final long[][] sketch;
+    private long total;
+
+    // current heavy hitters, lightest on top
+    private final Map<String, Candidate> candidates = new HashMap<>();
+    private final PriorityQueue<Candidate> heap = new PriorityQueue<>(Comparator.comparingLong(c -> c.count));
+
+    private static class Candidate {
+        final String url;
+        long count;
+
+        Candidate(String url, long count) {
+            this.url = url;
+            this.count = count;
+        }
+    }
+
+    public TopVisitedTracker(BrowseHistory history, int k, double epsilon, double delta) {
+        if (k <= 0 || epsilon <= 0 || delta <= 0 || delta >= 1)
+            throw new IllegalArgumentException("k and epsilon must be positive, delta in (0, 1)");
+        this.k = k;
+        width = (int) Math.ceil(Math.E / epsilon);
+        int depth = (int) Math.ceil(Math.log(1 / delta));
+        sketch = new long[depth][width];
+
+        for (Iterator<String> i = history.createIterator(); i.hasNext(); i.next())
+            added(i.current());
+        history.addListener(this);
+    }
+
+    @Override
+    public void added(String url) {
+        ++total;
+        long estimate = increment(hash(url));
+
+        var candidate = candidates.get(url);
+        if (candidate != null) {
+            // re-sort it with its new count
+            heap.remove(candidate);
+            candidate.count = estimate;
+            heap.add(candidate);
+        } else if (candidates.size() < k) {
+            admit(url, estimate);
+        } else if (estimate > heap.peek().count) {
+            // heavier than the lightest heavy hitter - swap them
+            candidates.remove(heap.poll().url);
+            admit(url, estimate);
+        }
+    }
+
+    @Override
+    public void removed(String url) {
+        // visits are counted when they happen
+    }
+
+    // estimated visits for any url, tracked or not
+    public long estimate(String url) {
+        long hash = hash(url);
+        long min = Long.MAX_VALUE;
+        for (int row = 0; row < sketch.length; ++row)
+            min = Math.min(min, sketch[row][bucket(hash, row)]);
+        return min;
+    }
+
+    // the k most visited urls, most visited first - independent of the history's length
+    public List<String> top() {
+        var sorted = new ArrayList<>(heap);
+        sorted.sort(Comparator.comparingLong((Candidate c) -> c.count).reversed());
+        var urls = new ArrayList<String>(sorted.size());
+        for (var candidate : sorted)
+            urls.add(candidate.url);
+        return urls;
+    }
+
+    public long totalVisits() {
+        return total;
+    }
+
+    private void admit(String url, long count) {
+        var candidate = new Candidate(url, count);
+        candidates.put(url, candidate);
+        heap.add(candidate);
+    }
+
+    // conservative update - only raise the counters that are at the current minimum
+    // which keeps the overestimate down without breaking the never-under guarantee
+    private long increment(long hash) {
+        long estimate = Long.MAX_VALUE;
+        for (int row = 0; row < sketch.length; ++row)
+            estimate = Math.min(estimate, sketch[row][bucket(hash, row)]);
+        ++estimate;
+        for (int row = 0; row < sketch.length; ++row) {
+            int column = bucket(hash, row);
+            if (sketch[row][column] < estimate)
+                sketch[row][column] = estimate;
+        }
+        return estimate;
+    }
+
+    // the rows need independent hashes for the error bound to hold - deriving them all from
+    // String.hashCode() would make urls with equal hash codes (e.g. "Aa" and "BB") collide in every row
+    // so: one 64-bit hash of the chars, split in two, and row i uses h1 + i * h2 (double hashing)
+    private int bucket(long hash, int row) {
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32) | 1;
+        return Math.floorMod(h1 + row * h2, width);
+    }
+
+    // FNV-1a over the chars (no byte[] needed), then a murmur3 finaliser to spread the bits
+    private static long hash(String url) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0, length = url.length(); i < length; ++i) {
+            h ^= url.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
+
+// thread-safe variant of the history
+// the whole state is an immutable value swapped in with a CAS, so appends never take a lock
+// and iterators walk a snapshot that writers can't change underneath them
+// (BrowseHistory itself is not thread-safe - its iterator reads the live buffer)
+class ConcurrentBrowseHistory {
+    private static final int CHUNK_SIZE = 32;
+    private static final String[] EMPTY_TAIL = new String[0];
+
+    // a full, immutable chunk of urls
+    // chunks are linked newest first, so every state shares all but its tail with the previous one
+    private static final class Chunk {
+        final String[] urls;
+        final Chunk previous;
+        final int count;
+
+        Chunk(String[] urls, Chunk previous) {
+            this.urls = urls;
+            this.previous = previous;
+            this.count = previous == null ? 1 : previous.count + 1;
+        }
+    }
+
+    // immutable state: the full chunks plus a small tail (fewer than CHUNK_SIZE urls)
+    // each push or pop copies at most one chunk's worth of references
+    private static final class State {
+        static final State EMPTY = new State(null, EMPTY_TAIL);
+
+        final Chunk chunks;
+        final String[] tail;
+        final int size;
+
+        State(Chunk chunks, String[] tail) {
+            this.chunks = chunks;
+            this.tail = tail;
+            this.size = (chunks == null ? 0 : chunks.count * CHUNK_SIZE) + tail.length;
+        }
+
+        State push(String url) {
+            var newTail = Arrays.copyOf(tail, tail.length + 1);
+            newTail[tail.length] = url;
+            // promote a full tail to a chunk
+            if (newTail.length == CHUNK_SIZE)
+                return new State(new Chunk(newTail, chunks), EMPTY_TAIL);
+            return new State(chunks, newTail);
+        }
+
+        State pop() {
+            if (size == 0)
+                throw new NoSuchElementException("History is empty");
+            if (tail.length > 0)
+                return new State(chunks, Arrays.copyOf(tail, tail.length - 1));
+            // tail is empty - the newest chunk becomes the tail, minus its last url
+            return new State(chunks.previous, Arrays.copyOf(chunks.urls, CHUNK_SIZE - 1));
+        }
+
+        String last() {
+            return tail.length > 0 ? tail[tail.length - 1] : chunks.urls[CHUNK_SIZE - 1];
+        }
+    }
+
+    private final AtomicReference<State> state = new AtomicReference<>(State.EMPTY);
+
+    // lock-free - retries the CAS if another writer got in first
+    public void push(String url) {
+        state.updateAndGet(s -> s.push(url));
+    }
+
+    public String pop() {
+        return state.getAndUpdate(State::pop).last();
+    }
+
+    public int size() {
+        return state.get().size;
+    }
+
+    // iterates whatever the history held at this moment, however writers carry on afterwards
+    public Iterator<String> createIterator() {
+        return new SnapshotIterator(state.get());
+    }
+
+    // walks the chunks of a single immutable state
+    private static class SnapshotIterator implements Iterator<String> {
+        // chunks oldest first, the tail being the last (possibly shorter) one
+        private final String[][] chunks;
+        private int chunk;
+        private int offset;
+
+        SnapshotIterator(State snapshot) {
+            int count = snapshot.chunks == null ? 0 : snapshot.chunks.count;
+            chunks = new String[count + 1][];
+            chunks[count] = snapshot.tail;
+            for (Chunk c = snapshot.chunks; c != null; c = c.previous)
+                chunks[--count] = c.urls;
+            skipExhausted();
+        }
+
+        @Override
+        public boolean hasNext() {
+            return chunk < chunks.length;
+        }
+
+        @Override
+        public String current() {
+            return chunks[chunk][offset];
+        }
+
+        @Override
+        public void next() {
+            ++offset;
+            skipExhausted();
+        }
+
+        // copies whole runs out of each chunk
+        @Override
+        public int nextBatch(String[] buffer) {
+            int n = 0;
+            while (n < buffer.length && hasNext()) {
+                int count = Math.min(buffer.length - n, chunks[chunk].length - offset);
+                System.arraycopy(chunks[chunk], offset, buffer, n, count);
+                n += count;
+                offset += count;
+                skipExhausted();
+            }
+            return n;
+        }
+
+        // moves on to the next chunk once this one is done (the tail may be empty)
+        private void skipExhausted() {
+            while (chunk < chunks.length && offset == chunks[chunk].length) {
+                ++chunk;
+                offset = 0;
+            }
+        }
+    }
+}
+
+// deduplicated, front-coded url dictionary
+// urls are stored as UTF-8 in a single byte array, in blocks of BLOCK_SIZE entries
+// the first entry of each block is stored whole, the others as (shared prefix length, suffix)
+// against the entry before them - urls added one after another tend to share long prefixes
+class UrlDictionary {
+    private static final int BLOCK_SIZE = 16;
+
+    private byte[] data = new byte[1024];
+    private int dataLength;
+    // where each block starts in data
+    private int[] blockOffsets = new int[16];
+    private int count;
+
+    // the last entry added, to front-code the next one against
+    private byte[] previous = new byte[0];
+
+    // open-addressing hash table of (id + 1), 0 meaning empty
+    // the strings themselves are never kept, a candidate is decoded to compare it
+    private int[] table = new int[64];
+    private int[] hashes = new int[16];
+
+    // decoding scratch space and read position
+    private byte[] scratch = new byte[256];
+    private int cursor;
+
+    public int size() {
+        return count;
+    }
+
+    // id of the url, adding it if it's new
+    public int intern(String url) {
+        var bytes = url.getBytes(StandardCharsets.UTF_8);
+        int hash = url.hashCode();
+        int mask = table.length - 1;
+        for (int slot = mix(hash) & mask; ; slot = (slot + 1) & mask) {
+            int entry = table[slot];
+            if (entry == 0) {
+                int id = add(bytes, hash);
+                table[slot] = id + 1;
+                // keep the load factor under a half
+                if (count * 2 > table.length)
+                    rehash();
+                return id;
+            }
+            if (hashes[entry - 1] == hash && matches(entry - 1, bytes))
+                return entry - 1;
+        }
+    }
+
+    public String get(int id) {
+        int length = decode(id);
+        return new String(scratch, 0, length, StandardCharsets.UTF_8);
+    }
+
+    // approximate heap used by the dictionary
+    public long footprint() {
+        return data.length + 4L * (blockOffsets.length + table.length + hashes.length) + scratch.length;
+    }
+
+    private boolean matches(int id, byte[] bytes) {
+        int length = decode(id);
+        return Arrays.equals(scratch, 0, length, bytes, 0, bytes.length);
+    }
+
+    // rebuilds the entry into scratch, starting from the head of its block
+    // returns its length in bytes
+    private int decode(int id) {
+        if (id < 0 || id >= count)
+            throw new IndexOutOfBoundsException(id);
+        int first = id / BLOCK_SIZE * BLOCK_SIZE;
+        cursor = blockOffsets[id / BLOCK_SIZE];
+        int length = 0;
+        for (int i = first; i <= id; ++i) {
+            int shared = readVarint();
+            int suffix = readVarint();
+            length = shared + suffix;
+            if (length > scratch.length)
+                scratch = Arrays.copyOf(scratch, Math.max(length, scratch.length * 2));
+            // the shared prefix is already in scratch from the previous entry
+            System.arraycopy(data, cursor, scratch, shared, suffix);
+            cursor += suffix;
+        }
+        return length;
+    }
+
+    private int add(byte[] bytes, int hash) {
+        int id = count;
+        int shared = 0;
+        if (id % BLOCK_SIZE == 0) {
+            // a new block starts with a whole entry
+            if (id / BLOCK_SIZE == blockOffsets.length)
+                blockOffsets = Arrays.copyOf(blockOffsets, blockOffsets.length * 2);
+            blockOffsets[id / BLOCK_SIZE] = dataLength;
+        } else {
+            shared = Arrays.mismatch(previous, bytes);
+        }
+
+        int suffix = bytes.length - shared;
+        // two varints of at most 5 bytes each, then the suffix
+        if (dataLength + 10 + suffix > data.length)
+            data = Arrays.copyOf(data, Math.max(dataLength + 10 + suffix, data.length * 2));
+        writeVarint(shared);
+        writeVarint(suffix);
+        System.arraycopy(bytes, shared, data, dataLength, suffix);
+        dataLength += suffix;
+
+        if (id == hashes.length)
+            hashes = Arrays.copyOf(hashes, hashes.length * 2);
+        hashes[id] = hash;
+        previous = bytes;
+        return count++;
+    }
+
+    private void rehash() {
+        table = new int[table.length * 2];
+        int mask = table.length - 1;
+        for (int id = 0; id < count; ++id) {
+            int slot = mix(hashes[id]) & mask;
+            while (table[slot] != 0)
+                slot = (slot + 1) & mask;
+            table[slot] = id + 1;
+        }
+    }
+
+    // spreads String.hashCode's low bits, which are poor for similar urls
+    private static int mix(int hash) {
+        int h = hash * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    // 7 bits per byte, high bit set on all but the last
+    private void writeVarint(int value) {
+        while ((value & ~0x7F) != 0) {
+            data[dataLength++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        data[dataLength++] = (byte) value;
+    }
+
+    private int readVarint() {
+        int value = 0;
+        for (int shift = 0; ; shift += 7) {
+            byte b = data[cursor++];
+            value |= (b & 0x7F) << shift;
+            if (b >= 0)
+                return value;
+        }
+    }
+}
+
+// compact history - each visit is an int id into a url dictionary
+// repeated visits cost 4 bytes, and urls are only decoded when the iterator reaches them
+class CompactBrowseHistory {
+    private final UrlDictionary dictionary = new UrlDictionary();
+    private int[] visits = new int[16];
+    private int size;
+
+    public void push(String url) {
+        if (size == visits.length)
+            visits = Arrays.copyOf(visits, size * 2);
+        visits[size++] = dictionary.intern(url);
+    }
+
+    // the url stays in the dictionary, it's likely to be visited again
+    public String pop() {
+        if (size == 0)
+            throw new NoSuchElementException("History is empty");
+        return dictionary.get(visits[--size]);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    String get(int index) {
+        if (index < 0 || index >= size)
+            throw new IndexOutOfBoundsException(index);
+        return dictionary.get(visits[index]);
+    }
+
+    // number of distinct urls
+    public int distinctCount() {
+        return dictionary.size();
+    }
+
+    // approximate heap used by the visits and the dictionary
+    public long footprint() {
+        return 4L * visits.length + dictionary.footprint();
+    }
+
+    public Iterator<String> createIterator() {
+        return new CompactIterator();
+    }
+
+    // the raw visit ids, for analysis that doesn't need the urls themselves
+    public IntIterator createIdIterator() {
+        return new IdIterator();
+    }
+
+    public String url(int id) {
+        return dictionary.get(id);
+    }
+
+    private class IdIterator implements IntIterator {
+        private int index;
+
+        @Override
+        public boolean hasNext() {
+            return index < size;
+        }
+
+        @Override
+        public int current() {
+            return visits[index];
+        }
+
+        @Override
+        public void next() {
+            ++index;
+        }
+
+        @Override
+        public int nextBatch(int[] buffer) {
+            int n = Math.min(buffer.length, size - index);
+            System.arraycopy(visits, index, buffer, 0, n);
+            index += n;
+            return n;
+        }
+    }
+
+    // decodes lazily - only when current() is called, and only once per run of the same url
+    private class CompactIterator implements Iterator<String> {
+        private int index;
+        private int decodedId = -1;
+        private String decoded;
+
+        @Override
+        public boolean hasNext() {
+            return index < size;
+        }
+
+        @Override
+        public String current() {
+            int id = visits[index];
+            if (id != decodedId) {
+                decoded = dictionary.get(id);
+                decodedId = id;
+            }
+            return decoded;
+        }
+
+        @Override
+        public void next() {
+            ++index;
+        }
+    }
+}
+
+// persistent history in memory-mapped, append-only segment files
+// each segment starts with a header (end offset, entry count, segment size) followed by records of
+// [length][UTF-8 bytes][length] - the trailing length lets pop walk backwards
+// opening only reads the headers, segments are mapped when something actually touches them
+// (read-only for iteration, read-write only once a push or pop needs it)
+class MappedBrowseHistory implements AutoCloseable {
+    private static final int HEADER_SIZE = 12;
+    private static final int DEFAULT_SEGMENT_SIZE = 64 * 1024 * 1024;
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_SUFFIX = ".log";
+
+    private final Path directory;
+    private final int segmentSize;
+    private final List<Segment> segments = new ArrayList<>();
+    private long size;
+    private int nextSegmentId;
+
+    // one segment file - mapped lazily
+    // (each one remembers its own size, so reopening with a different segmentSize
+    // only affects the segments created from then on)
+    private class Segment {
+        final Path path;
+        final int capacity;
+        int end;
+        int count;
+        MappedByteBuffer buffer;
+        boolean writable;
+
+        Segment(Path path, int capacity, int end, int count) {
+            this.path = path;
+            this.capacity = capacity;
+            this.end = end;
+            this.count = count;
+        }
+
+        MappedByteBuffer buffer() {
+            if (buffer == null)
+                map(false);
+            return buffer;
+        }
+
+        MappedByteBuffer writableBuffer() {
+            if (buffer == null || !writable)
+                map(true);
+            return buffer;
+        }
+
+        private void map(boolean write) {
+            // the mapping stays valid after the channel is closed
+            try (var channel = write
+                ? FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)
+                : FileChannel.open(path, StandardOpenOption.READ)) {
+                buffer = channel.map(write ? FileChannel.MapMode.READ_WRITE : FileChannel.MapMode.READ_ONLY,
+                    0, capacity);
+                writable = write;
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        void writeHeader() {
+            writableBuffer().putInt(0, end).putInt(4, count).putInt(8, capacity);
+        }
+    }
+
+    public MappedBrowseHistory(Path directory) throws IOException {
+        this(directory, DEFAULT_SEGMENT_SIZE);
+    }
+
+    public MappedBrowseHistory(Path directory, int segmentSize) throws IOException {
+        if (segmentSize <= HEADER_SIZE + 8)
+            throw new IllegalArgumentException("segmentSize is too small");
+        this.directory = Files.createDirectories(directory);
+        this.segmentSize = segmentSize;
+
+        // read the headers of existing segments, in order
+        List<Path> paths;
+        try (var files = Files.list(directory)) {
+            paths = files.filter(MappedBrowseHistory::isSegment).sorted().collect(Collectors.toList());
+        }
+        var header = ByteBuffer.allocate(HEADER_SIZE);
+        for (var path : paths) {
+            try (var channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                header.clear();
+                channel.read(header, 0);
+            }
+            var segment = new Segment(path, header.getInt(8), header.getInt(0), header.getInt(4));
+            // emptied by pop, but the file couldn't be deleted then - try again, and skip it either way
+            if (segment.count == 0) {
+                deleteIfPossible(path);
+                continue;
+            }
+            segments.add(segment);
+            size += segment.count;
+        }
+        nextSegmentId = paths.isEmpty() ? 0 : segmentId(paths.get(paths.size() - 1)) + 1;
+    }
+
+    // writes straight into the mapped tail segment, starting a new one when it's full
+    public void push(String url) {
+        var bytes = url.getBytes(StandardCharsets.UTF_8);
+        int recordSize = 4 + bytes.length + 4;
+        if (recordSize > segmentSize - HEADER_SIZE)
+            throw new IllegalArgumentException("url doesn't fit in a segment");
+
+        var tail = segments.isEmpty() ? null : segments.get(segments.size() - 1);
+        if (tail == null || tail.end + recordSize > tail.capacity)
+            tail = newSegment();
+
+        var buffer = tail.writableBuffer();
+        buffer.putInt(tail.end, bytes.length);
+        buffer.put(tail.end + 4, bytes);
+        buffer.putInt(tail.end + 4 + bytes.length, bytes.length);
+        tail.end += recordSize;
+        ++tail.count;
+        // the header goes last, so a torn write leaves the previous state intact
+        tail.writeHeader();
+        ++size;
+    }
+
+    // logical truncation - the bytes stay in the file, the header just stops covering them
+    public String pop() {
+        if (size == 0)
+            throw new NoSuchElementException("History is empty");
+
+        var tail = segments.get(segments.size() - 1);
+        var buffer = tail.writableBuffer();
+        int length = buffer.getInt(tail.end - 4);
+        int start = tail.end - 8 - length;
+        var bytes = new byte[length];
+        buffer.get(start + 4, bytes);
+        tail.end = start;
+        --tail.count;
+        tail.writeHeader();
+        --size;
+
+        // drop an emptied segment, unless it's the only one
+        // the url is already off the history, so a failed delete mustn't lose it - the file
+        // (empty according to its header) is just left for the next open to clean up
+        if (tail.count == 0 && segments.size() > 1) {
+            segments.remove(segments.size() - 1);
+            tail.buffer = null;
+            deleteIfPossible(tail.path);
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    public long size() {
+        return size;
+    }
+
+    // flushes the mapped segments to disk
+    public void flush() {
+        for (var segment : segments)
+            if (segment.buffer != null && segment.writable)
+                segment.buffer.force();
+    }
+
+    @Override
+    public void close() {
+        flush();
+        // there's no explicit unmap - the mappings go once they're unreachable
+        for (var segment : segments)
+            segment.buffer = null;
+    }
+
+    // pages through the segments one at a time, mapping each only when it's reached
+    public Iterator<String> createIterator() {
+        return new SegmentIterator();
+    }
+
+    private class SegmentIterator implements Iterator<String> {
+        private int segment;
+        private int position = HEADER_SIZE;
+
+        SegmentIterator() {
+            skipExhausted();
+        }
+
+        @Override
+        public boolean hasNext() {
+            return segment < segments.size();
+        }
+
+        @Override
+        public String current() {
+            var buffer = segments.get(segment).buffer();
+            var bytes = new byte[buffer.getInt(position)];
+            buffer.get(position + 4, bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        @Override
+        public void next() {
+            position += 8 + segments.get(segment).buffer().getInt(position);
+            skipExhausted();
+        }
+
+        private void skipExhausted() {
+            while (segment < segments.size() && position >= segments.get(segment).end) {
+                ++segment;
+                position = HEADER_SIZE;
+            }
+        }
+    }
+
+    private Segment newSegment() {
+        var path = directory.resolve(String.format("%s%08d%s", SEGMENT_PREFIX, nextSegmentId++, SEGMENT_SUFFIX));
+        try {
+            Files.createFile(path);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        var segment = new Segment(path, segmentSize, HEADER_SIZE, 0);
+        segment.writeHeader();
+        segments.add(segment);
+        return segment;
+    }
+
+    // best effort - e.g. on Windows a file can't be deleted while a mapping of it is still around
+    private static void deleteIfPossible(Path path) {
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException e) {
+            // still marked empty in its header, so it's skipped (and deleted) when the history is reopened
+        }
+    }
+
+    private static boolean isSegment(Path path) {
+        var name = path.getFileName().toString();
+        return name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX);
+    }
+
+    private static int segmentId(Path path) {
+        var name = path.getFileName().toString();
+        return Integer.parseInt(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
     }
 }
 
 public class Main {
-    public static void main(String[] args) {
+    public static void main(String[] args) throws Exception {
         var history = new BrowseHistory();
         history.push("a");
         history.push("b");
@@ -79,9 +1228,121 @@ public class Main {
         history.push("d");
         history.push("e");
 
-        for (Iterator i = history.createIterator(); i.hasNext(); i.next()) {
+        for (Iterator<String> i = history.createIterator(); i.hasNext(); i.next()) {
             var url = i.current();
             System.out.println(url);
         }
+
+        // popping removes the last entry, even when the url repeats
+        history.push("a");
+        System.out.println("Popped " + history.pop() + ", last is now " + history.get(history.size() - 1));
+
+        // bounded history - only the newest 3 entries survive
+        var recent = new BrowseHistory(3);
+        for (var url : new String[] { "a", "b", "c", "d", "e" })
+            recent.push(url);
+        for (Iterator<String> i = recent.createIterator(); i.hasNext(); i.next())
+            System.out.println(i.current());
+
+        // index - membership and autocomplete without walking the history
+        var index = new HistoryIndex(recent);
+        recent.push("https://docs.oracle.com/javase");
+        recent.push("https://docs.oracle.com/javase/17");
+        recent.push("https://docs.python.org");
+        System.out.println("Still has e (evicted)? " + index.contains("e")
+            + ", has python? " + index.contains("https://docs.python.org"));
+        System.out.println("Under https://docs.oracle: " + index.withPrefix("https://docs.oracle"));
+        recent.pop();
+        System.out.println("Completing https://docs: " + index.complete("https://docs", 5));
+
+        // top-k - fixed memory however long the history gets
+        var tracked = new BrowseHistory();
+        var tracker = new TopVisitedTracker(tracked, 3, 0.001, 0.01);
+        var random = new Random(7);
+        for (int i = 0; i < 200_000; ++i) {
+            // a few popular sites and a long tail
+            int site = random.nextInt(10) < 7 ? random.nextInt(4) : 4 + random.nextInt(50_000);
+            tracked.push("https://site" + site + ".com");
+        }
+        System.out.println("Top 3: " + tracker.top() + ", site0 ~" + tracker.estimate("https://site0.com") + " visits");
+
+        // parallel analytics - visits per site
+        var big = new BrowseHistory();
+        for (int i = 0; i < 1_000_000; ++i)
+            big.push("https://site" + (i % 5) + ".com/page" + i);
+        var perSite = big.parallelStream()
+            .map(url -> url.substring(0, url.indexOf('/', "https://".length())))
+            .collect(Collectors.groupingByConcurrent(url -> url, Collectors.counting()));
+        System.out.println(perSite);
+
+        // cursor - jump straight to a page, or walk back from the newest
+        var cursor = big.createCursor().seek(500_000);
+        System.out.println("Page at 500000: " + cursor.nextPage(3));
+        System.out.println("Page before it: " + cursor.previousPage(2));
+        int walked = 0;
+        for (var back = big.createCursor().seekFromEnd(0); back.hasNext() && walked < 3; back.previous(), ++walked)
+            System.out.println("Back " + walked + ": " + back.current());
+
+        // compact storage - same visits, a fraction of the memory
+        var compact = new CompactBrowseHistory();
+        long plainBytes = 0;
+        for (int i = 0; i < 1_000_000; ++i) {
+            var url = "https://site" + (i % 5) + ".com/articles/page" + (i % 20_000);
+            compact.push(url);
+            // rough cost of keeping a separate String per visit (header, array and reference)
+            plainBytes += 48 + url.length() + 8;
+        }
+        System.out.println(compact.distinctCount() + " distinct urls in " + compact.footprint() / 1024
+            + " KiB instead of ~" + plainBytes / 1024 + " KiB");
+
+        // batched iteration - the most visited url, by id, without decoding or boxing
+        var visitsPerId = new int[compact.distinctCount()];
+        var ids = new int[1024];
+        var idIterator = compact.createIdIterator();
+        for (int n; (n = idIterator.nextBatch(ids)) > 0; )
+            for (int k = 0; k < n; ++k)
+                ++visitsPerId[ids[k]];
+        int top = 0;
+        for (int id = 1; id < visitsPerId.length; ++id)
+            if (visitsPerId[id] > visitsPerId[top])
+                top = id;
+        System.out.println("Most visited: " + compact.url(top) + " (" + visitsPerId[top] + " visits)");
+
+        // persistent history - survives a reopen, which only reads segment headers
+        var directory = Files.createTempDirectory("history");
+        try (var mapped = new MappedBrowseHistory(directory, 1024 * 1024)) {
+            for (int i = 0; i < 100_000; ++i)
+                mapped.push("https://example.com/page" + i);
+        }
+        long start = System.nanoTime();
+        try (var mapped = new MappedBrowseHistory(directory, 1024 * 1024)) {
+            System.out.println("Reopened " + mapped.size() + " urls in " + (System.nanoTime() - start) / 1000 + " us");
+            System.out.println("Popped " + mapped.pop());
+            var i = mapped.createIterator();
+            System.out.println("First is " + i.current());
+        }
+        try (var files = Files.list(directory)) {
+            for (var file : files.collect(Collectors.toList()))
+                Files.delete(file);
+        }
+        Files.delete(directory);
+
+        // concurrent history - readers iterate a stable snapshot while writers keep appending
+        var shared = new ConcurrentBrowseHistory();
+        Thread[] writers = new Thread[4];
+        for (int t = 0; t < writers.length; ++t) {
+            int id = t;
+            writers[t] = new Thread(() -> {
+                for (int i = 0; i < 10_000; ++i)
+                    shared.push("site" + id + "/" + i);
+            });
+            writers[t].start();
+        }
+        int seen = 0;
+        for (Iterator<String> i = shared.createIterator(); i.hasNext(); i.next())
+            ++seen;
+        for (Thread t : writers)
+            t.join();
+        System.out.println("Snapshot saw " + seen + " urls, history now has " + shared.size());
     }
 }
\ No newline at end of file
@@ -1,4 +1,8 @@
 import java.io.*;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntUnaryOperator;
 
 // SINGLETON (the much-hated)
 // Used for components for which only one instance is sensible
@@ -11,7 +15,66 @@ class SimpleSingleton implements Serializable {
     // private ctor - disables creation of new objects
     private SimpleSingleton() {}
 
-    private int val = 0;
+    // padding on either side of the value keeps it on its own cache line
+    // so writes to it don't invalidate neighbouring fields (false sharing)
+    // (the JVM lays out superclass fields first, hence the little hierarchy:
+    // left padding, then the value, then right padding)
+    // since JDK 15 a subclass field can drop into a gap in its superclass's layout - with compressed
+    // class pointers there's a 4-byte one right after the header - so the bytes fill it up first
+    // (checked with Unsafe.objectFieldOffset on 17: bytes at 12-15, p* at 16-79, value at 80, q* from 88)
+    private static class LeftPadding implements Serializable {
+        private static final long serialVersionUID = 1L;
+        byte b0, b1, b2, b3;
+        long p1, p2, p3, p4, p5, p6, p7, p8;
+    }
+
+    private static class PaddedValue extends LeftPadding {
+        private static final long serialVersionUID = 1L;
+        private static final VarHandle VALUE;
+
+        static {
+            try {
+                VALUE = MethodHandles.lookup().findVarHandle(PaddedValue.class, "value", int.class);
+            } catch (ReflectiveOperationException e) {
+                throw new ExceptionInInitializerError(e);
+            }
+        }
+
+        volatile int value;
+
+        int get() {
+            return value;
+        }
+
+        void set(int newValue) {
+            value = newValue;
+        }
+
+        boolean compareAndSet(int expected, int newValue) {
+            return VALUE.compareAndSet(this, expected, newValue);
+        }
+
+        int updateAndGet(IntUnaryOperator updater) {
+            int prev, next;
+            do {
+                prev = value;
+                next = updater.applyAsInt(prev);
+            } while (!VALUE.weakCompareAndSet(this, prev, next));
+            return next;
+        }
+    }
+
+    private static class PaddedInt extends PaddedValue {
+        private static final long serialVersionUID = 1L;
+        long q1, q2, q3, q4, q5, q6, q7, q8;
+    }
+
+    // the shared value - atomic, so concurrent setters and getters don't race
+    private final PaddedInt val = new PaddedInt();
+
+    // a running total, separate from val - striped, so each contending thread adds to its own cell
+    // and the cells are only summed on read, so a hot counter scales across cores
+    private final LongAdder total = new LongAdder();
 
     // create a static final (const) instance
     private static final SimpleSingleton INSTANCE = new SimpleSingleton();
@@ -31,11 +94,42 @@ class SimpleSingleton implements Serializable {
 
     // getter and setter for the value
     public int getVal() {
-        return val;
+        return val.get();
     }
 
     public void setVal(int val) {
-        this.val = val;
+        this.val.set(val);
+    }
+
+    // CONTENTION-FRIENDLY ACCESSORS
+
+    // only sets the value if nobody changed it in the meantime
+    public boolean compareAndSetVal(int expected, int val) {
+        return this.val.compareAndSet(expected, val);
+    }
+
+    // atomic read-modify-write (retries the CAS under contention)
+    // the function may be called more than once, so it should be side-effect free
+    public int updateVal(IntUnaryOperator updater) {
+        return val.updateAndGet(updater);
+    }
+
+    // add to the striped total (val stays as it is) - cheap even when every thread does it
+    public void addToTotal(long x) {
+        total.add(x);
+    }
+
+    public void incrementTotal() {
+        total.increment();
+    }
+
+    // sums the cells - not an atomic snapshot if writers are still running
+    public long getTotal() {
+        return total.sum();
+    }
+
+    public long getTotalThenReset() {
+        return total.sumThenReset();
     }
 }
 
@@ -82,5 +176,24 @@ class DriverCode {
         System.out.println(singleton.getVal());
         System.out.println(doubleton.getVal());
         System.out.println(singleton == doubleton);
+
+        // hammering the shared state from several threads
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; ++t) {
+            threads[t] = new Thread(() -> {
+                SimpleSingleton s = SimpleSingleton.getInstance();
+                for (int i = 0; i < 100_000; ++i) {
+                    s.incrementTotal();
+                    s.updateVal(v -> v + 1);
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread t : threads)
+            t.join();
+
+        // no lost updates either way
+        System.out.println("Striped total: " + singleton.getTotal());
+        System.out.println("Atomic value: " + singleton.getVal());
     }
 }
\ No newline at end of file
@@ -1,4 +1,6 @@
 import java.io.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 // SINGLETON (the much-hated)
 // Used for components for which only one instance is sensible
@@ -13,21 +15,107 @@ class StaticBlockSingleton {
     private StaticBlockSingleton() throws IOException {
         System.out.println("Initialising...");
         File.createTempFile(".", ".");
+        fallback = false;
     }
 
-    private static StaticBlockSingleton instance;
+    // degraded instance handed out while the real one can't be created
+    // no IO here, so this one can't fail
+    private StaticBlockSingleton(boolean fallback) {
+        this.fallback = fallback;
+    }
+
+    private final boolean fallback;
+
+    // retry policy - a few attempts with exponential backoff
+    private static final int MAX_ATTEMPTS = 3;
+    private static final long INITIAL_BACKOFF_MILLIS = 10;
+    // after a failed round, don't retry on every access (that would stall every caller)
+    private static final long RETRY_COOLDOWN_MILLIS = 1000;
+
+    private static final StaticBlockSingleton FALLBACK = new StaticBlockSingleton(true);
+
+    // volatile so a late (lazy) initialisation is safely published to other threads
+    private static volatile StaticBlockSingleton instance;
+
+    // init metrics
+    private static final AtomicInteger failureCount = new AtomicInteger();
+    private static volatile long lastInitNanos;
+    private static volatile long lastFailureMillis;
+    // set while some thread is retrying - everyone else gets the fallback rather than waiting on it
+    private static final AtomicBoolean retrying = new AtomicBoolean();
 
     // effectively a static ctor
     static {
+        instance = tryCreate();
+    }
+
+    // bounded retry with backoff, returns null if every attempt failed
+    private static StaticBlockSingleton tryCreate() {
+        long start = System.nanoTime();
+        long backoff = INITIAL_BACKOFF_MILLIS;
         try {
-            instance = new StaticBlockSingleton();
-        } catch (Exception e) {
-            System.err.println("Failed to create the singleton!");
+            for (int attempt = 1; attempt <= MAX_ATTEMPTS; ++attempt) {
+                try {
+                    return new StaticBlockSingleton();
+                } catch (Exception e) {
+                    failureCount.incrementAndGet();
+                    System.err.println("Failed to create the singleton! (attempt " + attempt + " of " + MAX_ATTEMPTS + ")");
+                }
+
+                if (attempt < MAX_ATTEMPTS) {
+                    try {
+                        Thread.sleep(backoff);
+                    } catch (InterruptedException e) {
+                        // give up on this round, but keep the interrupt for the caller
+                        Thread.currentThread().interrupt();
+                        break;
+                    }
+                    backoff *= 2;
+                }
+            }
+            lastFailureMillis = System.currentTimeMillis();
+            return null;
+        } finally {
+            lastInitNanos = System.nanoTime() - start;
         }
     }
 
+    // never returns null
+    // if the static block failed, the next access (after a cooldown) tries again
+    // and the fallback instance is returned until one of those attempts succeeds
+    // (including to anyone who calls while that attempt is still running)
     public static StaticBlockSingleton getInstance() {
-        return instance;
+        StaticBlockSingleton result = instance;
+        if (result != null)
+            return result;
+
+        // only one caller retries (backoff and all), the rest don't block on a slow resource
+        if (System.currentTimeMillis() - lastFailureMillis >= RETRY_COOLDOWN_MILLIS && retrying.compareAndSet(false, true)) {
+            try {
+                // double-checked, and re-check the cooldown in case another thread just failed
+                if (instance == null && System.currentTimeMillis() - lastFailureMillis >= RETRY_COOLDOWN_MILLIS)
+                    instance = tryCreate();
+                result = instance;
+            } finally {
+                retrying.set(false);
+            }
+        }
+        return result != null ? result : FALLBACK;
+    }
+
+    // true for the degraded instance
+    public boolean isFallback() {
+        return fallback;
+    }
+
+    // how long the most recent initialisation round took (including backoff)
+    public static long getLastInitNanos() {
+        return lastInitNanos;
+    }
+
+    // total failed attempts since startup
+    public static int getFailureCount() {
+        return failureCount.get();
     }
 }
 
@@ -35,5 +123,10 @@ class DriverCode {
     public static void main(String[] args) throws Exception {
         StaticBlockSingleton singleton = StaticBlockSingleton.getInstance();
         System.out.println(singleton.getInstance());
+
+        // init stats
+        System.out.println("Fallback: " + singleton.isFallback());
+        System.out.println("Init took " + StaticBlockSingleton.getLastInitNanos() / 1000 + " us, "
+            + StaticBlockSingleton.getFailureCount() + " failures");
     }
 }
\ No newline at end of file
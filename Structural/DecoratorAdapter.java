@@ -1,3 +1,16 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.stream.IntStream;
 
 // DECORATOR
@@ -21,268 +34,913 @@ class StringBuilderProMax { // cannot extend StringBuilder (a final class)
         sb = new StringBuilder(s);
     }
 
+    private StringBuilderProMax(StringBuilder sb) {
+        this.sb = sb;
+    }
+
     // the adapter part
     // concat method (something from the String API)
     // with immutable strings, unlike append
     public StringBuilderProMax concat(String s) {
-        return new StringBuilderProMax(sb.toString().concat(s));
+        return new StringBuilderProMax(sb().toString().concat(s));
     }
 
     // the decorator part
     // appends a string and a line separator
     public StringBuilderProMax appendLine(String s) {
-        sb.append(s).append(System.lineSeparator());
+        sb().append(s).append(System.lineSeparator());
         return this;
     }
 
     // display format
     public String toString() {
-        return sb.toString();
+        return sb().toString();
+    }
+
+    // the buffer, unless this (pooled) builder has been released
+    private StringBuilder sb() {
+        var buffer = sb;
+        if (buffer == null)
+            throw new IllegalStateException("Builder was released to the pool");
+        return buffer;
+    }
+
+    // POOLED MODE
+    // for hot paths that build lots of short-lived strings: acquire() reuses a buffer from this
+    // thread's pool instead of allocating and growing a fresh one, and release() (or close()) hands
+    // it back, emptied. Oversized buffers aren't kept, so one huge message doesn't pin its memory
+    private static final int POOL_SIZE = 8;
+    private static final int MAX_POOLED_CAPACITY = 16 * 1024;
+    private static final ThreadLocal<ArrayDeque<StringBuilder>> pool = ThreadLocal.withInitial(ArrayDeque::new);
+    // striped counters - every thread updates them
+    private static final LongAdder hits = new LongAdder();
+    private static final LongAdder misses = new LongAdder();
+    private static final LongAdder discarded = new LongAdder();
+
+    public static Pooled acquire() {
+        var buffer = pool.get().pollFirst();
+        if (buffer != null) {
+            hits.increment();
+            return new Pooled(buffer);
+        }
+        misses.increment();
+        return new Pooled(new StringBuilder(256));
+    }
+
+    // only builders from acquire() can go back to the pool (so try-with-resources works on them alone)
+    // and once released, every method throws rather than touching a buffer someone else now has
+    public static final class Pooled extends StringBuilderProMax implements AutoCloseable {
+        private Pooled(StringBuilder sb) {
+            super(sb);
+        }
+
+        public void release() {
+            StringBuilderProMax.release(this);
+        }
+
+        @Override
+        public void close() {
+            release();
+        }
+    }
+
+    private static void release(StringBuilderProMax builder) {
+        var buffer = builder.sb();
+        builder.sb = null;
+        buffer.setLength(0);
+        var buffers = pool.get();
+        if (buffer.capacity() > MAX_POOLED_CAPACITY || buffers.size() >= POOL_SIZE)
+            discarded.increment();
+        else
+            buffers.offerFirst(buffer);
+    }
+
+    public static long getPoolHits() {
+        return hits.sum();
+    }
+
+    public static long getPoolMisses() {
+        return misses.sum();
+    }
+
+    // released buffers that were too big (or arrived when the pool was full)
+    public static long getPoolDiscards() {
+        return discarded.sum();
     }
 
     // DELEGATE METHODS (edited slightly to retain the fluent interface)
 
     public int compareTo(StringBuilder another) {
-        return sb.compareTo(another);
+        return sb().compareTo(another);
     }
 
     public StringBuilderProMax append(Object obj) {
-        sb.append(obj);
+        sb().append(obj);
         return this;
     }
 
 
     public StringBuilderProMax append(String str) {
-        sb.append(str);
+        sb().append(str);
         return this;
     }
 
     public StringBuilderProMax append(StringBuffer sb) {
-        this.sb.append(sb);
+        this.sb().append(sb);
         return this;
     }
 
     public StringBuilderProMax append(CharSequence s) {
-        sb.append(s);
+        sb().append(s);
         return this;
     }
 
     public StringBuilderProMax append(CharSequence s, int start, int end) {
-        sb.append(s, start, end);
+        sb().append(s, start, end);
         return this;
     }
 
     public StringBuilderProMax append(char[] str) {
-        sb.append(str);
+        sb().append(str);
         return this;
     }
 
     public StringBuilderProMax append(char[] str, int offset, int len) {
-        sb.append(str, offset, len);
+        sb().append(str, offset, len);
         return this;
     }
 
     public StringBuilderProMax append(boolean b) {
-        sb.append(b);
+        sb().append(b);
         return this;
     }
 
     public StringBuilderProMax append(char c) {
-        sb.append(c);
+        sb().append(c);
         return this;
     }
 
     public StringBuilderProMax append(int i) {
-        sb.append(i);
+        sb().append(i);
         return this;
     }
 
     public StringBuilderProMax append(long lng) {
-        sb.append(lng);
+        sb().append(lng);
         return this;
     }
 
     public StringBuilderProMax append(float f) {
-        sb.append(f);
+        sb().append(f);
         return this;
     }
 
     public StringBuilderProMax append(double d) {
-        sb.append(d);
+        sb().append(d);
         return this;
     }
 
     public StringBuilderProMax appendCodePoint(int codePoint) {
-        sb.appendCodePoint(codePoint);
+        sb().appendCodePoint(codePoint);
         return this;
     }
 
     public StringBuilderProMax delete(int start, int end) {
-        sb.delete(start, end);
+        sb().delete(start, end);
         return this;
     }
 
     public StringBuilderProMax deleteCharAt(int index) {
-        sb.deleteCharAt(index);
+        sb().deleteCharAt(index);
         return this;
     }
 
     public StringBuilderProMax replace(int start, int end, String str) {
-        sb.replace(start, end, str);
+        sb().replace(start, end, str);
         return this;
     }
 
     public StringBuilderProMax insert(int index, char[] str, int offset, int len) {
-        sb.insert(index, str, offset, len);
+        sb().insert(index, str, offset, len);
         return this;
     }
 
     public StringBuilderProMax insert(int offset, Object obj) {
-        sb.insert(offset, obj);
+        sb().insert(offset, obj);
         return this;
     }
 
     public StringBuilderProMax insert(int offset, String str) {
-        sb.insert(offset, str);
+        sb().insert(offset, str);
         return this;
     }
 
     public StringBuilderProMax insert(int offset, char[] str) {
-        sb.insert(offset, str);
+        sb().insert(offset, str);
         return this;
     }
 
     public StringBuilderProMax insert(int dstOffset, CharSequence s) {
-        sb.insert(dstOffset, s);
+        sb().insert(dstOffset, s);
         return this;
     }
 
     public StringBuilderProMax insert(int dstOffset, CharSequence s, int start, int end) {
-        sb.insert(dstOffset, s, start, end);
+        sb().insert(dstOffset, s, start, end);
         return this;
     }
 
     public StringBuilderProMax insert(int offset, boolean b) {
-        sb.insert(offset, b);
+        sb().insert(offset, b);
         return this;
     }
 
     public StringBuilderProMax insert(int offset, char c) {
-        sb.insert(offset, c);
+        sb().insert(offset, c);
         return this;
     }
 
     public StringBuilderProMax insert(int offset, int i) {
-        sb.insert(offset, i);
+        sb().insert(offset, i);
         return this;
     }
 
     public StringBuilderProMax insert(int offset, long l) {
-        sb.insert(offset, l);
+        sb().insert(offset, l);
         return this;
     }
 
     public StringBuilderProMax insert(int offset, float f) {
-        sb.insert(offset, f);
+        sb().insert(offset, f);
         return this;
     }
 
     public StringBuilderProMax insert(int offset, double d) {
-        sb.insert(offset, d);
+        sb().insert(offset, d);
         return this;
     }
 
     public int indexOf(String str) {
-        return sb.indexOf(str);
+        return sb().indexOf(str);
     }
 
     public int indexOf(String str, int fromIndex) {
-        return sb.indexOf(str, fromIndex);
+        return sb().indexOf(str, fromIndex);
     }
 
     public int lastIndexOf(String str) {
-        return sb.lastIndexOf(str);
+        return sb().lastIndexOf(str);
     }
 
     public int lastIndexOf(String str, int fromIndex) {
-        return sb.lastIndexOf(str, fromIndex);
+        return sb().lastIndexOf(str, fromIndex);
     }
 
     public StringBuilderProMax reverse() {
-        sb.reverse();
+        sb().reverse();
         return this;
     }
 
     public int length() {
-        return sb.length();
+        return sb().length();
     }
 
     public int capacity() {
-        return sb.capacity();
+        return sb().capacity();
     }
 
     public void ensureCapacity(int minimumCapacity) {
-        sb.ensureCapacity(minimumCapacity);
+        sb().ensureCapacity(minimumCapacity);
     }
 
     public void trimToSize() {
-        sb.trimToSize();
+        sb().trimToSize();
     }
 
     public void setLength(int newLength) {
-        sb.setLength(newLength);
+        sb().setLength(newLength);
     }
 
     public char charAt(int index) {
-        return sb.charAt(index);
+        return sb().charAt(index);
     }
 
     public int codePointAt(int index) {
-        return sb.codePointAt(index);
+        return sb().codePointAt(index);
     }
 
     public int codePointBefore(int index) {
-        return sb.codePointBefore(index);
+        return sb().codePointBefore(index);
     }
 
     public int codePointCount(int beginIndex, int endIndex) {
-        return sb.codePointCount(beginIndex, endIndex);
+        return sb().codePointCount(beginIndex, endIndex);
     }
 
     public int offsetByCodePoints(int index, int codePointOffset) {
-        return sb.offsetByCodePoints(index, codePointOffset);
+        return sb().offsetByCodePoints(index, codePointOffset);
     }
 
     public void getChars(int srcBegin, int srcEnd, char[] dst, int dstBegin) {
-        sb.getChars(srcBegin, srcEnd, dst, dstBegin);
+        sb().getChars(srcBegin, srcEnd, dst, dstBegin);
     }
 
     public void setCharAt(int index, char ch) {
-        sb.setCharAt(index, ch);
+        sb().setCharAt(index, ch);
     }
 
     public String substring(int start) {
-        return sb.substring(start);
+        return sb().substring(start);
     }
 
     public CharSequence subSequence(int start, int end) {
-        return sb.subSequence(start, end);
+        return sb().subSequence(start, end);
     }
 
     public String substring(int start, int end) {
-        return sb.substring(start, end);
+        return sb().substring(start, end);
     }
 
     public IntStream chars() {
-        return sb.chars();
+        return sb().chars();
     }
 
     public IntStream codePoints() {
-        return sb.codePoints();
+        return sb().codePoints();
+    }
+
+    public boolean isEmpty() {
+        return sb().isEmpty();
+    }
+}
+
+// ROPE MODE
+// the same decorator-adapter idea over a rope - a balanced tree of string pieces - instead of a StringBuilder
+// concat, insert, delete and substring are O(log n) and never copy the whole text,
+// and ropes are immutable, so the (immutable) concat just shares the tree with the original
+// the text is only flattened into one String by toString(), and that String is cached beside the tree
+// rather than replacing it, so editing after a toString() is still O(log n)
+class RopeStringBuilderProMax {
+    // neighbouring pieces shorter than this together are merged, so appending small bits doesn't make tiny leaves
+    private static final int MERGE_LIMIT = 256;
+    private static final Leaf EMPTY = new Leaf("");
+
+    private Rope rope;
+    // the flattened text, until the next edit
+    private String flat;
+
+    public RopeStringBuilderProMax() {
+        rope = EMPTY;
+    }
+
+    public RopeStringBuilderProMax(String s) {
+        rope = new Leaf(s);
+    }
+
+    private RopeStringBuilderProMax(Rope rope) {
+        this.rope = rope;
+    }
+
+    // the adapter part
+    // immutable concat - O(log n), the result shares all of this rope
+    public RopeStringBuilderProMax concat(String s) {
+        return new RopeStringBuilderProMax(join(rope, new Leaf(s)));
+    }
+
+    // the decorator part
+    public RopeStringBuilderProMax appendLine(String s) {
+        return append(s).append(System.lineSeparator());
+    }
+
+    // display format - flattens once, later calls are free until the next edit
+    public String toString() {
+        var result = flat;
+        if (result == null) {
+            var sb = new StringBuilder(rope.length);
+            rope.appendTo(sb);
+            flat = result = sb.toString();
+        }
+        return result;
+    }
+
+    // EDITING (fluent, like the StringBuilder version)
+
+    public RopeStringBuilderProMax append(String str) {
+        edit(join(rope, new Leaf(String.valueOf(str))));
+        return this;
+    }
+
+    // shares the other rope rather than copying it
+    public RopeStringBuilderProMax append(RopeStringBuilderProMax other) {
+        edit(join(rope, other.rope));
+        return this;
+    }
+
+    public RopeStringBuilderProMax append(Object obj) {
+        return append(String.valueOf(obj));
+    }
+
+    public RopeStringBuilderProMax append(CharSequence s) {
+        return append(String.valueOf(s));
+    }
+
+    public RopeStringBuilderProMax append(char c) {
+        return append(String.valueOf(c));
+    }
+
+    public RopeStringBuilderProMax append(boolean b) {
+        return append(String.valueOf(b));
+    }
+
+    public RopeStringBuilderProMax append(int i) {
+        return append(String.valueOf(i));
+    }
+
+    public RopeStringBuilderProMax append(long lng) {
+        return append(String.valueOf(lng));
+    }
+
+    public RopeStringBuilderProMax append(double d) {
+        return append(String.valueOf(d));
+    }
+
+    public RopeStringBuilderProMax insert(int offset, String str) {
+        checkPosition(offset);
+        var parts = split(rope, offset);
+        edit(join(join(parts[0], new Leaf(String.valueOf(str))), parts[1]));
+        return this;
+    }
+
+    public RopeStringBuilderProMax insert(int offset, Object obj) {
+        return insert(offset, String.valueOf(obj));
+    }
+
+    public RopeStringBuilderProMax delete(int start, int end) {
+        end = Math.min(end, rope.length);
+        if (start < 0 || start > end)
+            throw new StringIndexOutOfBoundsException("start " + start + ", end " + end + ", length " + rope.length);
+        var head = split(rope, start);
+        var tail = split(head[1], end - start);
+        edit(join(head[0], tail[1]));
+        return this;
+    }
+
+    public RopeStringBuilderProMax deleteCharAt(int index) {
+        checkIndex(index);
+        return delete(index, index + 1);
+    }
+
+    public RopeStringBuilderProMax replace(int start, int end, String str) {
+        return delete(start, end).insert(start, str);
+    }
+
+    // O(log n) slice that shares this rope's pieces
+    public RopeStringBuilderProMax subRope(int start, int end) {
+        if (start < 0 || end > rope.length || start > end)
+            throw new StringIndexOutOfBoundsException("start " + start + ", end " + end + ", length " + rope.length);
+        return new RopeStringBuilderProMax(split(split(rope, end)[0], start)[1]);
+    }
+
+    public String substring(int start, int end) {
+        return subRope(start, end).toString();
+    }
+
+    public String substring(int start) {
+        return substring(start, rope.length);
+    }
+
+    public CharSequence subSequence(int start, int end) {
+        return substring(start, end);
+    }
+
+    public char charAt(int index) {
+        checkIndex(index);
+        var node = rope;
+        while (node instanceof Node) {
+            var n = (Node) node;
+            if (index < n.left.length) {
+                node = n.left;
+            } else {
+                index -= n.left.length;
+                node = n.right;
+            }
+        }
+        return ((Leaf) node).charAt(index);
+    }
+
+    public int length() {
+        return rope.length;
     }
 
     public boolean isEmpty() {
-        return sb.isEmpty();
+        return rope.length == 0;
+    }
+
+    private void edit(Rope edited) {
+        rope = edited;
+        flat = null;
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= rope.length)
+            throw new StringIndexOutOfBoundsException("index " + index + ", length " + rope.length);
+    }
+
+    private void checkPosition(int offset) {
+        if (offset < 0 || offset > rope.length)
+            throw new StringIndexOutOfBoundsException("offset " + offset + ", length " + rope.length);
+    }
+
+    // THE ROPE ITSELF
+    // immutable nodes, kept height-balanced (AVL style) by join
+
+    private abstract static class Rope {
+        final int length;
+        final int height;
+
+        Rope(int length, int height) {
+            this.length = length;
+            this.height = height;
+        }
+
+        abstract void appendTo(StringBuilder sb);
+    }
+
+    // a view of part of a string - splitting a leaf just makes two narrower views, so however
+    // long the string it came from, no edit copies more than MERGE_LIMIT chars
+    // (the flip side: a view keeps the whole string it points into alive)
+    private static final class Leaf extends Rope {
+        final String s;
+        final int offset;
+
+        Leaf(String s) {
+            this(s, 0, s.length());
+        }
+
+        Leaf(String s, int offset, int length) {
+            super(length, 0);
+            this.s = s;
+            this.offset = offset;
+        }
+
+        char charAt(int index) {
+            return s.charAt(offset + index);
+        }
+
+        // only called on short leaves, when merging
+        String text() {
+            return s.substring(offset, offset + length);
+        }
+
+        @Override
+        void appendTo(StringBuilder sb) {
+            sb.append(s, offset, offset + length);
+        }
+    }
+
+    private static final class Node extends Rope {
+        final Rope left;
+        final Rope right;
+
+        Node(Rope left, Rope right) {
+            super(Math.addExact(left.length, right.length), Math.max(left.height, right.height) + 1);
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        void appendTo(StringBuilder sb) {
+            left.appendTo(sb);
+            right.appendTo(sb);
+        }
+    }
+
+    // concatenates two ropes in O(|height difference|), creating only the nodes along one edge
+    private static Rope join(Rope left, Rope right) {
+        if (left.length == 0)
+            return right;
+        if (right.length == 0)
+            return left;
+
+        // merge small neighbouring leaves
+        if (left instanceof Leaf && right instanceof Leaf && left.length + right.length <= MERGE_LIMIT)
+            return new Leaf(((Leaf) left).text() + ((Leaf) right).text());
+        if (right instanceof Leaf && left instanceof Node) {
+            var l = (Node) left;
+            if (l.right instanceof Leaf && l.right.length + right.length <= MERGE_LIMIT)
+                return join(l.left, new Leaf(((Leaf) l.right).text() + ((Leaf) right).text()));
+        }
+        if (left instanceof Leaf && right instanceof Node) {
+            var r = (Node) right;
+            if (r.left instanceof Leaf && left.length + r.left.length <= MERGE_LIMIT)
+                return join(new Leaf(((Leaf) left).text() + ((Leaf) r.left).text()), r.right);
+        }
+
+        // descend the taller side until the heights are close, then rebalance on the way back up
+        if (left.height > right.height + 1) {
+            var l = (Node) left;
+            return balance(l.left, join(l.right, right));
+        }
+        if (right.height > left.height + 1) {
+            var r = (Node) right;
+            return balance(join(left, r.left), r.right);
+        }
+        return new Node(left, right);
+    }
+
+    // a node from two subtrees whose heights differ by at most 2, rotating if need be
+    private static Rope balance(Rope left, Rope right) {
+        if (left.height > right.height + 1) {
+            var l = (Node) left;
+            if (l.left.height >= l.right.height)
+                return new Node(l.left, new Node(l.right, right));
+            var lr = (Node) l.right;
+            return new Node(new Node(l.left, lr.left), new Node(lr.right, right));
+        }
+        if (right.height > left.height + 1) {
+            var r = (Node) right;
+            if (r.right.height >= r.left.height)
+                return new Node(new Node(left, r.left), r.right);
+            var rl = (Node) r.left;
+            return new Node(new Node(left, rl.left), new Node(rl.right, r.right));
+        }
+        return new Node(left, right);
+    }
+
+    // the first index chars, and the rest
+    private static Rope[] split(Rope rope, int index) {
+        if (index <= 0)
+            return new Rope[] { EMPTY, rope };
+        if (index >= rope.length)
+            return new Rope[] { rope, EMPTY };
+        if (rope instanceof Leaf) {
+            var leaf = (Leaf) rope;
+            return new Rope[] {
+                new Leaf(leaf.s, leaf.offset, index),
+                new Leaf(leaf.s, leaf.offset + index, leaf.length - index)
+            };
+        }
+        var node = (Node) rope;
+        if (index < node.left.length) {
+            var parts = split(node.left, index);
+            return new Rope[] { parts[0], join(parts[1], node.right) };
+        }
+        var parts = split(node.right, index - node.left.length);
+        return new Rope[] { join(node.left, parts[0]), parts[1] };
+    }
+}
+
+// BYTE MODE
+// appends are encoded straight into a direct byte buffer (single bytes for Latin-1, UTF-8 otherwise)
+// which is flushed to a channel, or moved along a memory-mapped file, whenever it fills up
+// so large outputs never exist as a UTF-16 String on the heap
+// (the memory-mapped target is Linux/macOS only, see toMappedFile)
+class ByteStringBuilderProMax implements AutoCloseable {
+    private static final int DEFAULT_CAPACITY = 64 * 1024;
+    // room for the longest number append(long) writes in one go - a sign and up to 20 digits
+    private static final int MIN_CAPACITY = 21;
+    private static final byte REPLACEMENT = '?';
+
+    private final boolean latin1;
+    private ByteBuffer buffer;
+    // where full buffers go - a channel, or else the next region of a mapped file
+    private final WritableByteChannel channel;
+    private final FileChannel mappedFile;
+    private long flushed;
+    // a high surrogate waiting for its other half (which may come in the next append)
+    private char pendingHighSurrogate;
+    private final byte[] digits = new byte[20];
+
+    // UTF-8 into the channel
+    public ByteStringBuilderProMax(WritableByteChannel channel) {
+        this(channel, StandardCharsets.UTF_8, DEFAULT_CAPACITY);
+    }
+
+    public ByteStringBuilderProMax(WritableByteChannel channel, Charset charset, int capacity) {
+        if (capacity < MIN_CAPACITY)
+            throw new IllegalArgumentException("capacity must be at least " + MIN_CAPACITY + " bytes");
+        this.latin1 = isLatin1(charset);
+        this.channel = channel;
+        this.mappedFile = null;
+        buffer = ByteBuffer.allocateDirect(capacity);
+    }
+
+    private ByteStringBuilderProMax(FileChannel mappedFile, Charset charset, int regionSize) throws IOException {
+        this.latin1 = isLatin1(charset);
+        this.channel = null;
+        this.mappedFile = mappedFile;
+        buffer = mappedFile.map(FileChannel.MapMode.READ_WRITE, 0, regionSize);
+    }
+
+    // writes into the file through a mapping, one region at a time - the file is trimmed to size on close
+    // Linux/macOS only: trimming happens while the last region is still mapped (Java can't unmap on demand)
+    // and Windows refuses to truncate a mapped file - use the channel constructor there
+    public static ByteStringBuilderProMax toMappedFile(Path file, Charset charset) throws IOException {
+        if (!supportsMappedFiles())
+            throw new UnsupportedOperationException("Mapped output needs to truncate a mapped file, which Windows doesn't allow");
+        var channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+            StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        try {
+            return new ByteStringBuilderProMax(channel, charset, DEFAULT_CAPACITY * 16);
+        } catch (IOException | RuntimeException e) {
+            // the builder would have owned the channel, so it's ours to close
+            try {
+                channel.close();
+            } catch (IOException suppressed) {
+                e.addSuppressed(suppressed);
+            }
+            throw e;
+        }
+    }
+
+    public static boolean supportsMappedFiles() {
+        return !System.getProperty("os.name").startsWith("Windows");
+    }
+
+    private static boolean isLatin1(Charset charset) {
+        if (charset.equals(StandardCharsets.ISO_8859_1))
+            return true;
+        if (charset.equals(StandardCharsets.UTF_8))
+            return false;
+        throw new IllegalArgumentException("Only ISO-8859-1 and UTF-8 are supported");
+    }
+
+    // the decorator part
+    public ByteStringBuilderProMax appendLine(String s) {
+        return append(s).append(System.lineSeparator());
+    }
+
+    public ByteStringBuilderProMax append(CharSequence s) {
+        if (s == null)
+            s = "null";
+        int length = s.length();
+        for (int i = 0; i < length; ) {
+            // ASCII fast path - a byte per char, no checks beyond the bounds
+            int run = Math.min(length - i, buffer.remaining());
+            int end = i + run;
+            while (i < end && pendingHighSurrogate == 0) {
+                char c = s.charAt(i);
+                if (c >= 0x80)
+                    break;
+                buffer.put((byte) c);
+                ++i;
+            }
+            if (i < length)
+                i = encode(s, i);
+        }
+        return this;
+    }
+
+    public ByteStringBuilderProMax append(String s) {
+        return append((CharSequence) s);
+    }
+
+    public ByteStringBuilderProMax append(Object obj) {
+        return append(String.valueOf(obj));
+    }
+
+    public ByteStringBuilderProMax append(char c) {
+        return append(String.valueOf(c));
+    }
+
+    public ByteStringBuilderProMax append(boolean b) {
+        return append(b ? "true" : "false");
+    }
+
+    public ByteStringBuilderProMax append(int i) {
+        return append((long) i);
+    }
+
+    // digits straight into the buffer, no String in between
+    public ByteStringBuilderProMax append(long lng) {
+        if (lng == Long.MIN_VALUE)
+            return append("-9223372036854775808");
+        flushPendingSurrogate();
+        int count = 0;
+        long value = Math.abs(lng);
+        do {
+            digits[count++] = (byte) ('0' + value % 10);
+            value /= 10;
+        } while (value != 0);
+        ensureRemaining(count + 1);
+        if (lng < 0)
+            buffer.put((byte) '-');
+        while (count > 0)
+            buffer.put(digits[--count]);
+        return this;
+    }
+
+    public ByteStringBuilderProMax append(double d) {
+        return append(String.valueOf(d));
+    }
+
+    // bytes produced so far
+    public long length() {
+        return flushed + buffer.position();
+    }
+
+    // pushes what's buffered to the channel (or the mapped file)
+    public void flush() throws IOException {
+        flushPendingSurrogate();
+        if (channel != null) {
+            buffer.flip();
+            while (buffer.hasRemaining())
+                flushed += channel.write(buffer);
+            buffer.clear();
+        } else {
+            ((MappedByteBuffer) buffer).force();
+        }
+    }
+
+    // the channel stays open, it belongs to the caller - a mapped file is trimmed and closed
+    @Override
+    public void close() throws IOException {
+        flush();
+        if (mappedFile != null) {
+            long length = length();
+            buffer = ByteBuffer.allocate(0);
+            try {
+                mappedFile.truncate(length);
+            } finally {
+                mappedFile.close();
+            }
+        }
+    }
+
+    // one non-ASCII char (or surrogate pair), returns the index after it
+    private int encode(CharSequence s, int i) {
+        char c = s.charAt(i);
+        if (pendingHighSurrogate != 0) {
+            char high = pendingHighSurrogate;
+            pendingHighSurrogate = 0;
+            if (Character.isLowSurrogate(c)) {
+                putCodePoint(Character.toCodePoint(high, c));
+                return i + 1;
+            }
+            // an unpaired surrogate - same replacement as String.getBytes
+            putByte(REPLACEMENT);
+            return i;
+        }
+
+        if (c < 0x80) {
+            putByte((byte) c);
+        } else if (Character.isHighSurrogate(c)) {
+            pendingHighSurrogate = c;
+        } else if (Character.isLowSurrogate(c)) {
+            putByte(REPLACEMENT);
+        } else if (latin1) {
+            putByte(c <= 0xFF ? (byte) c : REPLACEMENT);
+        } else {
+            putCodePoint(c);
+        }
+        return i + 1;
+    }
+
+    private void flushPendingSurrogate() {
+        if (pendingHighSurrogate != 0) {
+            pendingHighSurrogate = 0;
+            putByte(REPLACEMENT);
+        }
+    }
+
+    private void putCodePoint(int cp) {
+        if (latin1) {
+            putByte(REPLACEMENT);
+        } else if (cp < 0x800) {
+            ensureRemaining(2);
+            buffer.put((byte) (0xC0 | cp >> 6)).put((byte) (0x80 | cp & 0x3F));
+        } else if (cp < 0x10000) {
+            ensureRemaining(3);
+            buffer.put((byte) (0xE0 | cp >> 12)).put((byte) (0x80 | cp >> 6 & 0x3F)).put((byte) (0x80 | cp & 0x3F));
+        } else {
+            ensureRemaining(4);
+            buffer.put((byte) (0xF0 | cp >> 18)).put((byte) (0x80 | cp >> 12 & 0x3F))
+                .put((byte) (0x80 | cp >> 6 & 0x3F)).put((byte) (0x80 | cp & 0x3F));
+        }
+    }
+
+    private void putByte(byte b) {
+        ensureRemaining(1);
+        buffer.put(b);
+    }
+
+    private void ensureRemaining(int bytes) {
+        if (buffer.remaining() >= bytes)
+            return;
+        try {
+            if (channel != null) {
+                flush();
+            } else {
+                // move the mapping along the file (which grows as needed)
+                long position = length();
+                int regionSize = buffer.capacity();
+                ((MappedByteBuffer) buffer).force();
+                flushed = position;
+                buffer = mappedFile.map(FileChannel.MapMode.READ_WRITE, position, regionSize);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
     }
 }
 
@@ -293,5 +951,43 @@ class DriverCode {
         sb.append("Hello").appendLine(" World");
         // test concat
         System.out.println(sb.concat("Saluton Mondo!"));
+
+        // pooled mode - the same few buffers serve every message
+        for (int i = 0; i < 100_000; ++i) {
+            try (var message = StringBuilderProMax.acquire()) {
+                message.append("event ").append(i).appendLine(" handled");
+            }
+        }
+        System.out.println("Pool hits: " + StringBuilderProMax.getPoolHits() + ", misses: " + StringBuilderProMax.getPoolMisses());
+
+        // rope mode - big edits without copying the whole text
+        var rope = new RopeStringBuilderProMax();
+        for (int i = 0; i < 100_000; ++i)
+            rope.append("line ").append(i).append('\n');
+        var edited = rope.concat("the end").insert(5, "(inserted) ").delete(0, 5);
+        System.out.println(edited.substring(0, 20).replace('\n', '|') + " ... " + edited.length() + " chars");
+        // the original is untouched by edits to the concatenated copy
+        System.out.println(rope.substring(0, 7).replace('\n', '|'));
+
+        // byte mode - straight to a file, never a String
+        var file = Files.createTempFile("output", ".txt");
+        try (var channel = FileChannel.open(file, StandardOpenOption.WRITE);
+            var out = new ByteStringBuilderProMax(channel)) {
+            for (int i = 0; i < 100_000; ++i)
+                out.append("Grüße ").append(i).appendLine(" \uD83D\uDE00");
+        }
+        System.out.println(Files.size(file) + " bytes, first line: " + Files.readAllLines(file).get(0));
+        Files.delete(file);
+        // (the mapping outlives close(), so deleting the file right away only works where mapped output does)
+        if (ByteStringBuilderProMax.supportsMappedFiles()) {
+            var mapped = Files.createTempFile("output", ".txt");
+            try (var out = ByteStringBuilderProMax.toMappedFile(mapped, StandardCharsets.ISO_8859_1)) {
+                for (int i = 0; i < 100_000; ++i)
+                    out.append("Grüße ").append(i).appendLine("");
+            }
+            System.out.println(Files.size(mapped) + " bytes mapped, first line: "
+                + Files.readAllLines(mapped, StandardCharsets.ISO_8859_1).get(0));
+            Files.delete(mapped);
+        }
     }
 }
\ No newline at end of file
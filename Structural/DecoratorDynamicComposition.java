@@ -1,3 +1,41 @@
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.management.ManagementFactory;
+import java.nio.BufferOverflowException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+import java.util.concurrent.ConcurrentMap;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
 // DECORATOR
 // Adds behaviour without altering the class or inheriting from it
 // (augments the interface)
@@ -8,6 +46,40 @@
 // interface
 interface Shape {
     String info();
+
+    // bumped whenever the shape changes, so cached renderings know when they're stale
+    // decorators report the version of what they wrap - shapes that never change can keep 0
+    default long version() {
+        return 0;
+    }
+}
+
+// what the decorators have in common - code that unwraps a chain goes through these
+// rather than the concrete classes, since DecoratorSpecializer's hidden-class copies
+// implement the same interfaces but aren't subclasses of ColouredShape/TransparentShape
+interface Decorator extends Shape {
+    // the shape this layer wraps
+    Shape getShape();
+}
+
+interface Coloured extends Decorator {
+    String getColour();
+}
+
+interface Transparent extends Decorator {
+    int getTransparency();
+}
+
+// a rendered info() string, and the version of the shape it was rendered from
+// immutable, so a cache can be swapped in with one reference write
+final class CachedInfo {
+    final long version;
+    final String info;
+
+    CachedInfo(long version, String info) {
+        this.version = version;
+        this.info = info;
+    }
 }
 
 // implementers
@@ -20,13 +92,30 @@ class Circle implements Shape {
         this.radius = radius;
     }
     
+    private long version;
+    private CachedInfo cache;
+
+    double getRadius() {
+        return radius;
+    }
+
     void scale(double factor) {
         radius *= factor;
+        // invalidates this and, through version(), every decorator wrapping it
+        ++version;
+    }
+
+    @Override
+    public long version() {
+        return version;
     }
 
     @Override
     public String info() {
-        return "A circle of radius " + radius;
+        var cached = cache;
+        if (cached == null || cached.version != version)
+            cache = cached = new CachedInfo(version, "A circle of radius " + radius);
+        return cached.info;
     }
 }
 
@@ -39,47 +128,1389 @@ class Square implements Shape {
         this.side = side;
     }
 
+    double getSide() {
+        return side;
+    }
+
+    // squares never change, so the first rendering is good forever
+    private String cache;
+
     @Override
     public String info() {
-        return "A square of side " + side;
+        if (cache == null)
+            cache = "A square of side " + side;
+        return cache;
     }
 }
 
 // this decorator adds a colour property
-class ColouredShape implements Shape {
+class ColouredShape implements Coloured {
     private Shape shape;
     private String colour;
+    private CachedInfo cache;
 
     public ColouredShape(Shape shape, String colour) {
         this.shape = shape;
         this.colour = colour;
     }
 
+    @Override
+    public Shape getShape() {
+        return shape;
+    }
+
+    @Override
+    public String getColour() {
+        return colour;
+    }
+
+    // decorators don't change themselves, so they're only as new as what they wrap
+    @Override
+    public long version() {
+        return shape.version();
+    }
+
+    // re-rendered only when something underneath has changed
     @Override
     public String info() {
-        return shape.info() + " of " + colour + " colour";
+        long current = shape.version();
+        var cached = cache;
+        if (cached == null || cached.version != current)
+            cache = cached = new CachedInfo(current, shape.info() + " of " + colour + " colour");
+        return cached.info;
     }
 }
 
 // this decorator adds a transparency property
-class TransparentShape implements Shape {
+class TransparentShape implements Transparent {
     
     private Shape shape;
     private int transparency;
+    private CachedInfo cache;
 
     public TransparentShape(Shape shape, int transparency) {
         this.shape = shape;
         this.transparency = transparency;
     }
 
+    @Override
+    public Shape getShape() {
+        return shape;
+    }
+
+    @Override
+    public int getTransparency() {
+        return transparency;
+    }
+
+    // decorators don't change themselves, so they're only as new as what they wrap
+    @Override
+    public long version() {
+        return shape.version();
+    }
+
+    // re-rendered only when something underneath has changed
     @Override
     public String info() {
-        return shape.info() + " with " + transparency + "% transparency";
+        long current = shape.version();
+        var cached = cache;
+        if (cached == null || cached.version != current)
+            cache = cached = new CachedInfo(current, shape.info() + " with " + transparency + "% transparency");
+        return cached.info;
+    }
+}
+
+// FLATTENED DECORATION
+// a stack of decorators collapsed into one object: the base shape plus a flat record of the layers
+// info() is one virtual call into the base and a single concatenation,
+// instead of a call per layer with each layer copying the string built below it
+// the layers themselves are a pooled flyweight (see Decoration), so a decorated shape
+// costs little more than a reference on top of its geometry
+class DecoratedShape implements Shape {
+    private final Shape base;
+    private final Decoration decoration;
+
+    private DecoratedShape(Shape base, Decoration decoration) {
+        this.base = base;
+        this.decoration = decoration;
+    }
+
+    public static Builder builder(Shape base) {
+        return new Builder(base);
+    }
+
+    // collapses an existing chain of decorators (specialised copies included)
+    public static DecoratedShape flatten(Shape shape) {
+        return builder(shape).build();
+    }
+
+    // the undecorated shape underneath (still the same object, so e.g. Circle.scale shows up)
+    public Shape getBase() {
+        return base;
+    }
+
+    public Decoration getDecoration() {
+        return decoration;
+    }
+
+    public int depth() {
+        return decoration.depth();
+    }
+
+    @Override
+    public long version() {
+        return base.version();
+    }
+
+    // no cache of its own - a rendering per shape would cost more than the shape itself
+    // the suffix is pre-rendered in the shared Decoration, and the base caches its own info()
+    // so this is one concatenation however many layers
+    @Override
+    public String info() {
+        return base.info().concat(decoration.suffix());
+    }
+
+    static class Builder {
+        private final Shape base;
+        private byte[] kinds = new byte[4];
+        private String[] colours = new String[4];
+        private int[] transparencies = new int[4];
+        private int depth;
+
+        private Builder(Shape shape) {
+            // unwrap whatever decoration the shape already has, outermost first
+            var outerFirst = new ArrayList<Decorator>();
+            while (shape instanceof Decorator) {
+                var layer = (Decorator) shape;
+                outerFirst.add(layer);
+                shape = layer.getShape();
+            }
+
+            if (shape instanceof DecoratedShape) {
+                var flat = (DecoratedShape) shape;
+                base = flat.base;
+                for (int i = 0; i < flat.decoration.depth(); ++i)
+                    add(flat.decoration.kind(i), flat.decoration.colour(i), flat.decoration.transparency(i));
+            } else {
+                base = shape;
+            }
+
+            for (int i = outerFirst.size() - 1; i >= 0; --i) {
+                var layer = outerFirst.get(i);
+                if (layer instanceof Coloured)
+                    coloured(((Coloured) layer).getColour());
+                else if (layer instanceof Transparent)
+                    transparent(((Transparent) layer).getTransparency());
+                else
+                    throw new IllegalArgumentException("Unknown decorator " + layer.getClass().getName());
+            }
+        }
+
+        public Builder coloured(String colour) {
+            add(Decoration.COLOUR, colour, 0);
+            return this;
+        }
+
+        public Builder transparent(int transparency) {
+            add(Decoration.TRANSPARENCY, null, transparency);
+            return this;
+        }
+
+        // shapes decorated the same way share one Decoration from the pool
+        public DecoratedShape build() {
+            var decoration = new Decoration(Arrays.copyOf(kinds, depth),
+                Arrays.copyOf(colours, depth), Arrays.copyOf(transparencies, depth));
+            return new DecoratedShape(base, DecorationPool.intern(decoration));
+        }
+
+        private void add(byte kind, String colour, int transparency) {
+            if (depth == kinds.length) {
+                kinds = Arrays.copyOf(kinds, depth * 2);
+                colours = Arrays.copyOf(colours, depth * 2);
+                transparencies = Arrays.copyOf(transparencies, depth * 2);
+            }
+            kinds[depth] = kind;
+            colours[depth] = colour;
+            transparencies[depth] = transparency;
+            ++depth;
+        }
+    }
+}
+
+// FLYWEIGHT decorator state
+// the layers of a decorator stack - immutable, and compared by value so the pool can share it
+// between every shape decorated the same way. Its part of info() is rendered once, up front
+final class Decoration {
+    static final byte COLOUR = 0;
+    static final byte TRANSPARENCY = 1;
+
+    // layers innermost first - kinds[i] says which of the arrays holds layer i's value
+    private final byte[] kinds;
+    private final String[] colours;
+    private final int[] transparencies;
+    private final String suffix;
+    private final int hash;
+
+    Decoration(byte[] kinds, String[] colours, int[] transparencies) {
+        this.kinds = kinds;
+        this.colours = colours;
+        this.transparencies = transparencies;
+
+        var sb = new StringBuilder(24 * kinds.length);
+        for (int i = 0; i < kinds.length; ++i) {
+            if (kinds[i] == COLOUR)
+                sb.append(" of ").append(colours[i]).append(" colour");
+            else
+                sb.append(" with ").append(transparencies[i]).append("% transparency");
+        }
+        suffix = sb.toString();
+        hash = 31 * (31 * Arrays.hashCode(kinds) + Arrays.hashCode(colours)) + Arrays.hashCode(transparencies);
+    }
+
+    public int depth() {
+        return kinds.length;
+    }
+
+    byte kind(int layer) {
+        return kinds[layer];
+    }
+
+    String colour(int layer) {
+        return colours[layer];
+    }
+
+    int transparency(int layer) {
+        return transparencies[layer];
+    }
+
+    // what the layers add to the base shape's info()
+    public String suffix() {
+        return suffix;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o)
+            return true;
+        if (!(o instanceof Decoration))
+            return false;
+        var other = (Decoration) o;
+        return hash == other.hash
+            && Arrays.equals(kinds, other.kinds)
+            && Arrays.equals(colours, other.colours)
+            && Arrays.equals(transparencies, other.transparencies);
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+}
+
+// the flyweight factory - hands out one shared Decoration per distinct combination of layers
+// concurrent, so shapes can be decorated from several threads at once
+class DecorationPool {
+    private static final ConcurrentMap<Decoration, Decoration> pool = new ConcurrentHashMap<>();
+
+    private DecorationPool() {}
+
+    // the pooled equivalent of the decoration (the argument itself if it's the first of its kind)
+    public static Decoration intern(Decoration decoration) {
+        var existing = pool.putIfAbsent(decoration, decoration);
+        return existing != null ? existing : decoration;
+    }
+
+    public static int size() {
+        return pool.size();
+    }
+}
+
+// COLUMNAR STORE for large scenes
+// struct-of-arrays: one primitive array per attribute instead of an object (plus wrappers) per shape
+// each shape is a circle or square with at most one colour and one transparency layer
+// bulk operations are plain loops over the arrays, which the JIT can unroll and vectorise
+class ShapeStore {
+    static final byte CIRCLE = 0;
+    static final byte SQUARE = 1;
+    // no colour / no transparency
+    static final int NONE = -1;
+
+    private byte[] kinds = new byte[16];
+    // radius or side, depending on the kind
+    private double[] sizes = new double[16];
+    private int[] colourIds = new int[16];
+    private byte[] transparencies = new byte[16];
+    private int count;
+
+    // colour dictionary - each distinct colour is stored once
+    private final List<String> colours = new ArrayList<>();
+    private final Map<String, Integer> colourIdByName = new HashMap<>();
+
+    // bumped by every mutation, so cached renderings of views go stale
+    private long version;
+
+    public int addCircle(double radius, String colour, int transparency) {
+        return add(CIRCLE, radius, colour, transparency);
+    }
+
+    public int addSquare(double side, String colour, int transparency) {
+        return add(SQUARE, side, colour, transparency);
+    }
+
+    public int size() {
+        return count;
+    }
+
+    // a flyweight view - holds nothing but the store and an index
+    public Shape get(int index) {
+        if (index < 0 || index >= count)
+            throw new IndexOutOfBoundsException(index);
+        return new View(index);
+    }
+
+    // BULK OPERATIONS
+
+    // branch-free (a select, not a jump) so the loop stays vectorisable
+    public void scaleCircles(double factor) {
+        var kinds = this.kinds;
+        var sizes = this.sizes;
+        for (int i = 0; i < count; ++i)
+            sizes[i] *= kinds[i] == CIRCLE ? factor : 1.0;
+        ++version;
+    }
+
+    public void scaleAll(double factor) {
+        var sizes = this.sizes;
+        for (int i = 0; i < count; ++i)
+            sizes[i] *= factor;
+        ++version;
+    }
+
+    public void setTransparencyAll(int transparency) {
+        checkTransparency(transparency);
+        Arrays.fill(transparencies, 0, count, (byte) transparency);
+        ++version;
+    }
+
+    public double totalCircleArea() {
+        double total = 0;
+        for (int i = 0; i < count; ++i)
+            total += kinds[i] == CIRCLE ? Math.PI * sizes[i] * sizes[i] : 0.0;
+        return total;
+    }
+
+    private int add(byte kind, double size, String colour, int transparency) {
+        checkTransparency(transparency);
+        if (count == kinds.length) {
+            int capacity = count * 2;
+            kinds = Arrays.copyOf(kinds, capacity);
+            sizes = Arrays.copyOf(sizes, capacity);
+            colourIds = Arrays.copyOf(colourIds, capacity);
+            transparencies = Arrays.copyOf(transparencies, capacity);
+        }
+        kinds[count] = kind;
+        sizes[count] = size;
+        colourIds[count] = colour == null ? NONE : colourIdByName.computeIfAbsent(colour, c -> {
+            colours.add(c);
+            return colours.size() - 1;
+        });
+        transparencies[count] = (byte) transparency;
+        ++version;
+        return count++;
+    }
+
+    // stored as a byte, so anything outside the range would wrap around (or turn into NONE)
+    private static void checkTransparency(int transparency) {
+        if (transparency < NONE || transparency > 100)
+            throw new IllegalArgumentException("transparency must be a percentage (or NONE)");
+    }
+
+    // renders the same text as the equivalent Circle/Square wrapped in ColouredShape then TransparentShape
+    private class View implements Shape {
+        private final int index;
+
+        View(int index) {
+            this.index = index;
+        }
+
+        @Override
+        public long version() {
+            return version;
+        }
+
+        @Override
+        public String info() {
+            var sb = new StringBuilder(80)
+                .append(kinds[index] == CIRCLE ? "A circle of radius " : "A square of side ")
+                .append(sizes[index]);
+            if (colourIds[index] != NONE)
+                sb.append(" of ").append(colours.get(colourIds[index])).append(" colour");
+            if (transparencies[index] != NONE)
+                sb.append(" with ").append(transparencies[index]).append("% transparency");
+            return sb.toString();
+        }
+    }
+}
+
+// BATCH RENDERING to a channel
+// shapes are cut into chunks, each chunk's info() lines are rendered and encoded on a worker thread
+// into pooled direct buffers, and the chunks are written back in order with one gathering write each
+// so formatting runs on every core while the calling thread only does IO
+class ShapeRenderer implements AutoCloseable {
+    private static final byte[] LINE_SEPARATOR = System.lineSeparator().getBytes(StandardCharsets.UTF_8);
+
+    private final ExecutorService workers;
+    private final int chunkSize;
+    private final int bufferSize;
+    // how many chunks may be rendered ahead of the writer - bounds the buffers in use
+    private final int maxInFlight;
+    private final Queue<ByteBuffer> freeBuffers = new ConcurrentLinkedQueue<>();
+
+    public ShapeRenderer() {
+        this(Runtime.getRuntime().availableProcessors(), 4096, 64 * 1024);
+    }
+
+    public ShapeRenderer(int threads, int chunkSize, int bufferSize) {
+        if (threads <= 0 || chunkSize <= 0)
+            throw new IllegalArgumentException("threads and chunkSize must be positive");
+        // room for at least one encoded character and a line separator
+        if (bufferSize < 16)
+            throw new IllegalArgumentException("bufferSize must be at least 16 bytes");
+        workers = Executors.newFixedThreadPool(threads);
+        this.chunkSize = chunkSize;
+        this.bufferSize = bufferSize;
+        maxInFlight = threads * 2;
+    }
+
+    public void render(Collection<? extends Shape> shapes, WritableByteChannel out) throws IOException {
+        render(shapes.stream(), out);
+    }
+
+    // writes one info() line per shape, in stream order
+    public void render(Stream<? extends Shape> shapes, WritableByteChannel out) throws IOException {
+        var pending = new ArrayDeque<Future<List<ByteBuffer>>>();
+        try {
+            var chunk = new ArrayList<Shape>(chunkSize);
+            for (var i = shapes.iterator(); i.hasNext(); ) {
+                chunk.add(i.next());
+                if (chunk.size() == chunkSize) {
+                    pending.add(submit(chunk));
+                    chunk = new ArrayList<>(chunkSize);
+                    // backpressure - don't render further ahead than the writer can keep up with
+                    if (pending.size() >= maxInFlight)
+                        write(pending.poll(), out);
+                }
+            }
+            if (!chunk.isEmpty())
+                pending.add(submit(chunk));
+            while (!pending.isEmpty())
+                write(pending.poll(), out);
+        } finally {
+            for (var future : pending)
+                future.cancel(true);
+        }
+    }
+
+    @Override
+    public void close() {
+        workers.shutdown();
+    }
+
+    private Future<List<ByteBuffer>> submit(List<Shape> chunk) {
+        return workers.submit(() -> {
+            // encoders aren't thread-safe, so each chunk gets its own
+            // (replacing bad input like String.getBytes does - otherwise a lone surrogate would end the line early)
+            var encoder = StandardCharsets.UTF_8.newEncoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+            var buffers = new ArrayList<ByteBuffer>();
+            var buffer = acquire();
+            buffers.add(buffer);
+            for (var shape : chunk) {
+                var chars = CharBuffer.wrap(shape.info());
+                // spill into another pooled buffer whenever this one fills up
+                while (encoder.encode(chars, buffer, true).isOverflow()) {
+                    buffer = acquire();
+                    buffers.add(buffer);
+                }
+                encoder.reset();
+                if (buffer.remaining() < LINE_SEPARATOR.length) {
+                    buffer = acquire();
+                    buffers.add(buffer);
+                }
+                buffer.put(LINE_SEPARATOR);
+            }
+            for (var b : buffers)
+                b.flip();
+            return buffers;
+        });
+    }
+
+    // waits for the chunk, writes it and hands its buffers back to the pool
+    private void write(Future<List<ByteBuffer>> future, WritableByteChannel out) throws IOException {
+        List<ByteBuffer> buffers;
+        try {
+            buffers = future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while rendering");
+        } catch (ExecutionException e) {
+            throw new IOException("Rendering failed", e.getCause());
+        }
+
+        var array = buffers.toArray(new ByteBuffer[0]);
+        if (out instanceof GatheringByteChannel) {
+            var gathering = (GatheringByteChannel) out;
+            while (array[array.length - 1].hasRemaining())
+                gathering.write(array);
+        } else {
+            for (var buffer : array)
+                while (buffer.hasRemaining())
+                    out.write(buffer);
+        }
+
+        for (var buffer : array)
+            freeBuffers.offer(buffer.clear());
+    }
+
+    private ByteBuffer acquire() {
+        var buffer = freeBuffers.poll();
+        return buffer != null ? buffer : ByteBuffer.allocateDirect(bufferSize);
+    }
+}
+
+// SPECIALISED COMPOSITION
+// every ColouredShape (and TransparentShape) shares one shape.info() call site, which goes megamorphic
+// as soon as a few different classes flow through it, and then the JIT can't inline along the chain
+// this rebuilds a chain out of hidden-class copies of the decorators, one copy per
+// (decorator, wrapped class) pair - each copy's call site only ever sees one receiver class,
+// so a hot stack gets a monomorphic, fully inlinable path
+class DecoratorSpecializer {
+    private static final MethodHandles.Lookup lookup = MethodHandles.lookup();
+
+    // wrapped class -> constructor of the copy specialised for it
+    private static final ConcurrentMap<Class<?>, MethodHandle> colouredCopies = new ConcurrentHashMap<>();
+    private static final ConcurrentMap<Class<?>, MethodHandle> transparentCopies = new ConcurrentHashMap<>();
+
+    private DecoratorSpecializer() {}
+
+    // an equivalent chain built from specialised copies (undecorated shapes come back as they are)
+    // works on already specialised chains too, so they can be rebuilt after their shapes change class
+    public static Shape specialize(Shape shape) {
+        if (shape instanceof Coloured) {
+            var coloured = (Coloured) shape;
+            return coloured(specialize(coloured.getShape()), coloured.getColour());
+        }
+        if (shape instanceof Transparent) {
+            var transparent = (Transparent) shape;
+            return transparent(specialize(transparent.getShape()), transparent.getTransparency());
+        }
+        return shape;
+    }
+
+    public static Shape coloured(Shape shape, String colour) {
+        var ctor = colouredCopies.computeIfAbsent(shape.getClass(), wrapped -> copy(ColouredShape.class, String.class));
+        return create(ctor, shape, colour);
+    }
+
+    public static Shape transparent(Shape shape, int transparency) {
+        var ctor = transparentCopies.computeIfAbsent(shape.getClass(), wrapped -> copy(TransparentShape.class, int.class));
+        return create(ctor, shape, transparency);
+    }
+
+    private static Shape create(MethodHandle ctor, Shape shape, Object attribute) {
+        try {
+            return (Shape) ctor.invoke(shape, attribute);
+        } catch (Throwable e) {
+            throw new IllegalStateException("Couldn't create a specialised decorator", e);
+        }
+    }
+
+    // defines a fresh hidden class from the decorator's own bytecode - same code, separate profile
+    private static MethodHandle copy(Class<? extends Shape> decorator, Class<?> attributeType) {
+        try (var in = decorator.getResourceAsStream(decorator.getSimpleName() + ".class")) {
+            if (in == null)
+                throw new IllegalStateException("No bytecode available for " + decorator.getName());
+            var copy = lookup.defineHiddenClass(in.readAllBytes(), true);
+            return copy.findConstructor(copy.lookupClass(), MethodType.methodType(void.class, Shape.class, attributeType))
+                .asType(MethodType.methodType(Shape.class, Shape.class, Object.class));
+        } catch (IOException | ReflectiveOperationException e) {
+            throw new IllegalStateException("Couldn't specialise " + decorator.getName(), e);
+        }
+    }
+}
+
+// BINARY SERIALISATION
+// compact codec for circles, squares and any stack of colour/transparency decorators (or a DecoratedShape)
+// record: base tag and size (a double), a varint layer count, then each layer innermost first
+// as a tag and a varint - a colour id or a transparency
+// colours form a dictionary built up as the stream goes: the first use of a colour carries its
+// UTF-8 name, later ones just the id, so decoding a shape doesn't allocate any strings
+class ShapeCodec {
+    private static final byte CIRCLE = 0;
+    private static final byte SQUARE = 1;
+    private static final byte COLOUR = 0;
+    private static final byte TRANSPARENCY = 1;
+    // large files are mapped a window at a time
+    private static final long MAP_WINDOW = 1L << 30;
+
+    private ShapeCodec() {}
+
+    // streams the shapes to the channel through one reusable buffer
+    public static void write(Iterable<? extends Shape> shapes, WritableByteChannel out) throws IOException {
+        var encoder = new Encoder();
+        var buffer = ByteBuffer.allocateDirect(64 * 1024);
+        for (var shape : shapes) {
+            while (!encoder.encode(shape, buffer)) {
+                if (buffer.position() == 0)
+                    throw new IllegalArgumentException("Shape is too large for the buffer");
+                flush(buffer, out);
+            }
+        }
+        flush(buffer, out);
+    }
+
+    // decodes straight out of a read-only mapping of the file - nothing is read into the heap first
+    public static void read(Path file, Consumer<? super Shape> action) throws IOException {
+        var decoder = new Decoder();
+        try (var channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            long position = 0;
+            while (position < size) {
+                var window = channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(MAP_WINDOW, size - position));
+                for (Shape shape; window.hasRemaining() && (shape = decoder.decode(window)) != null; )
+                    action.accept(shape);
+                // a record cut off by the window's end is decoded again from the next window
+                if (window.position() == 0)
+                    throw new EOFException("Truncated shape record at byte " + position);
+                position += window.position();
+            }
+        }
+    }
+
+    public static List<Shape> read(Path file) throws IOException {
+        var shapes = new ArrayList<Shape>();
+        read(file, shapes::add);
+        return shapes;
+    }
+
+    private static void flush(ByteBuffer buffer, WritableByteChannel out) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining())
+            out.write(buffer);
+        buffer.clear();
+    }
+
+    static class Encoder {
+        private final Map<String, Integer> colourIds = new HashMap<>();
+        // scratch space for the layers of the shape being encoded, outermost first
+        private byte[] kinds = new byte[8];
+        private String[] colours = new String[8];
+        private int[] transparencies = new int[8];
+        private int depth;
+
+        // writes the shape, or returns false - leaving the buffer and dictionary as they were - if it doesn't fit
+        public boolean encode(Shape shape, ByteBuffer out) {
+            depth = 0;
+            while (true) {
+                if (shape instanceof Coloured) {
+                    var coloured = (Coloured) shape;
+                    addLayer(COLOUR, coloured.getColour(), 0);
+                    shape = coloured.getShape();
+                } else if (shape instanceof Transparent) {
+                    var transparent = (Transparent) shape;
+                    addLayer(TRANSPARENCY, null, transparent.getTransparency());
+                    shape = transparent.getShape();
+                } else if (shape instanceof DecoratedShape) {
+                    var decorated = (DecoratedShape) shape;
+                    var decoration = decorated.getDecoration();
+                    for (int i = decoration.depth() - 1; i >= 0; --i)
+                        addLayer(decoration.kind(i), decoration.colour(i), decoration.transparency(i));
+                    shape = decorated.getBase();
+                } else {
+                    break;
+                }
+            }
+            if (!(shape instanceof Circle) && !(shape instanceof Square))
+                throw new IllegalArgumentException("Can't encode a " + shape.getClass().getName());
+
+            int start = out.position();
+            int dictionarySize = colourIds.size();
+            try {
+                if (shape instanceof Circle)
+                    out.put(CIRCLE).putDouble(((Circle) shape).getRadius());
+                else
+                    out.put(SQUARE).putDouble(((Square) shape).getSide());
+                writeVarint(out, depth);
+                for (int i = depth - 1; i >= 0; --i) {
+                    out.put(kinds[i]);
+                    if (kinds[i] == COLOUR)
+                        writeColour(out, colours[i]);
+                    else
+                        writeVarint(out, transparencies[i]);
+                }
+                return true;
+            } catch (BufferOverflowException e) {
+                out.position(start);
+                // colours first defined in the dropped record have to be defined again next time
+                colourIds.values().removeIf(id -> id >= dictionarySize);
+                return false;
+            }
+        }
+
+        private void addLayer(byte kind, String colour, int transparency) {
+            if (depth == kinds.length) {
+                kinds = Arrays.copyOf(kinds, depth * 2);
+                colours = Arrays.copyOf(colours, depth * 2);
+                transparencies = Arrays.copyOf(transparencies, depth * 2);
+            }
+            kinds[depth] = kind;
+            colours[depth] = colour;
+            transparencies[depth] = transparency;
+            ++depth;
+        }
+
+        // id shifted left one, low bit set when the name follows
+        private void writeColour(ByteBuffer out, String colour) {
+            var id = colourIds.get(colour);
+            if (id != null) {
+                writeVarint(out, id << 1);
+                return;
+            }
+            id = colourIds.size();
+            colourIds.put(colour, id);
+            var bytes = colour.getBytes(StandardCharsets.UTF_8);
+            writeVarint(out, id << 1 | 1);
+            writeVarint(out, bytes.length);
+            out.put(bytes);
+        }
+    }
+
+    static class Decoder {
+        private final List<String> colours = new ArrayList<>();
+
+        // the next shape, or null if the buffer ends mid-record
+        // (the position is left at the start of that record, so it can be retried with more data)
+        public Shape decode(ByteBuffer in) {
+            int start = in.position();
+            int dictionarySize = colours.size();
+            try {
+                byte tag = in.get();
+                double size = in.getDouble();
+                Shape shape;
+                if (tag == CIRCLE)
+                    shape = new Circle(size);
+                else if (tag == SQUARE)
+                    shape = new Square(size);
+                else
+                    throw new IllegalStateException("Corrupt shape record: unknown shape tag " + tag);
+
+                int depth = readVarint(in);
+                for (int i = 0; i < depth; ++i) {
+                    byte kind = in.get();
+                    if (kind == COLOUR)
+                        shape = new ColouredShape(shape, readColour(in));
+                    else if (kind == TRANSPARENCY)
+                        shape = new TransparentShape(shape, readVarint(in));
+                    else
+                        throw new IllegalStateException("Corrupt shape record: unknown layer tag " + kind);
+                }
+                return shape;
+            } catch (BufferUnderflowException e) {
+                in.position(start);
+                colours.subList(dictionarySize, colours.size()).clear();
+                return null;
+            }
+        }
+
+        private String readColour(ByteBuffer in) {
+            int code = readVarint(in);
+            if ((code & 1) == 0)
+                return colours.get(code >>> 1);
+            // only the first use of each colour gets here
+            var bytes = new byte[readVarint(in)];
+            in.get(bytes);
+            var colour = new String(bytes, StandardCharsets.UTF_8);
+            colours.add(colour);
+            return colour;
+        }
+    }
+
+    // 7 bits per byte, high bit set on all but the last
+    private static void writeVarint(ByteBuffer out, int value) {
+        while ((value & ~0x7F) != 0) {
+            out.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.put((byte) value);
+    }
+
+    private static int readVarint(ByteBuffer in) {
+        int value = 0;
+        for (int shift = 0; ; shift += 7) {
+            byte b = in.get();
+            value |= (b & 0x7F) << shift;
+            if (b >= 0)
+                return value;
+        }
+    }
+}
+
+// TEXT INGESTION
+// builds decorated shapes from scene descriptions, one per line: a kind and a size, then layers
+// applied innermost first - a word adds a colour, a percentage a transparency
+//     circle 7 green 25%
+// the file is memory-mapped a window at a time and cut into chunks at line breaks, chunks are parsed
+// on worker threads straight from the mapped bytes (the only strings made are colour names, once per chunk)
+// and handed over in file order, with a cap on chunks in flight so memory stays bounded however big the file
+class SceneParser implements AutoCloseable {
+    private static final long WINDOW_SIZE = 64L * 1024 * 1024;
+    private static final byte[] CIRCLE = { 'c', 'i', 'r', 'c', 'l', 'e' };
+    private static final byte[] SQUARE = { 's', 'q', 'u', 'a', 'r', 'e' };
+    // exact powers of ten as doubles - up to 1e22 a mantissa / 10^n division rounds correctly
+    private static final double[] POWERS_OF_TEN = new double[23];
+
+    static {
+        POWERS_OF_TEN[0] = 1;
+        for (int i = 1; i < POWERS_OF_TEN.length; ++i)
+            POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10;
+    }
+
+    private final ExecutorService workers;
+    private final int chunkSize;
+    private final int maxInFlight;
+
+    public SceneParser() {
+        this(Runtime.getRuntime().availableProcessors(), 1024 * 1024);
+    }
+
+    public SceneParser(int threads, int chunkSize) {
+        if (threads <= 0 || chunkSize <= 0)
+            throw new IllegalArgumentException("threads and chunkSize must be positive");
+        workers = Executors.newFixedThreadPool(threads);
+        this.chunkSize = chunkSize;
+        maxInFlight = threads * 2;
+    }
+
+    public List<Shape> parse(Path file) throws IOException {
+        var shapes = new ArrayList<Shape>();
+        parse(file, shapes::add);
+        return shapes;
+    }
+
+    // hands every shape to the action on the calling thread, in file order
+    public void parse(Path file, Consumer<? super Shape> action) throws IOException {
+        var pending = new ArrayDeque<Future<List<Shape>>>();
+        try (var channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            long position = 0;
+            while (position < size) {
+                long length = Math.min(WINDOW_SIZE, size - position);
+                var window = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+                // stop at the last line break, unless this is the end of the file
+                int end = (int) length;
+                if (position + length < size) {
+                    end = lastLineBreak(window, end) + 1;
+                    if (end == 0)
+                        throw new IOException("Line longer than " + WINDOW_SIZE + " bytes at byte " + position);
+                }
+
+                for (int start = 0; start < end; ) {
+                    int chunkEnd = Math.min(start + chunkSize, end);
+                    if (chunkEnd < end)
+                        chunkEnd = Math.max(lastLineBreak(window, chunkEnd) + 1, start);
+                    if (chunkEnd == start)
+                        chunkEnd = nextLineBreak(window, start, end) + 1;
+                    pending.add(submit(window.slice(start, chunkEnd - start), position + start));
+                    start = chunkEnd;
+                    // backpressure - don't parse further ahead than the consumer keeps up with
+                    if (pending.size() >= maxInFlight)
+                        deliver(pending.poll(), action);
+                }
+                position += end;
+            }
+            while (!pending.isEmpty())
+                deliver(pending.poll(), action);
+        } finally {
+            for (var future : pending)
+                future.cancel(true);
+        }
+    }
+
+    @Override
+    public void close() {
+        workers.shutdown();
+    }
+
+    private Future<List<Shape>> submit(ByteBuffer chunk, long offset) {
+        return workers.submit(() -> new ChunkParser(chunk, offset).parse());
+    }
+
+    private void deliver(Future<List<Shape>> future, Consumer<? super Shape> action) throws IOException {
+        List<Shape> shapes;
+        try {
+            shapes = future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while parsing");
+        } catch (ExecutionException e) {
+            throw new IOException("Parsing failed", e.getCause());
+        }
+        for (var shape : shapes)
+            action.accept(shape);
+    }
+
+    // index of the last '\n' before end, or -1
+    private static int lastLineBreak(ByteBuffer buffer, int end) {
+        for (int i = end - 1; i >= 0; --i)
+            if (buffer.get(i) == '\n')
+                return i;
+        return -1;
+    }
+
+    // index of the first '\n' from start, or end - 1 if there isn't one
+    private static int nextLineBreak(ByteBuffer buffer, int start, int end) {
+        for (int i = start; i < end; ++i)
+            if (buffer.get(i) == '\n')
+                return i;
+        return end - 1;
+    }
+
+    // parses one chunk of whole lines, working on the bytes in place
+    private static class ChunkParser {
+        private final ByteBuffer in;
+        private final long offset;
+        private int position;
+        // this chunk's colour names, so each distinct colour becomes a String only once
+        private byte[][] colourBytes = new byte[16][];
+        private String[] colourNames = new String[16];
+        private int colourCount;
+
+        ChunkParser(ByteBuffer in, long offset) {
+            this.in = in;
+            this.offset = offset;
+        }
+
+        List<Shape> parse() {
+            var shapes = new ArrayList<Shape>();
+            int limit = in.limit();
+            while (position < limit) {
+                int lineEnd = position;
+                while (lineEnd < limit && in.get(lineEnd) != '\n')
+                    ++lineEnd;
+                var shape = parseLine(lineEnd);
+                if (shape != null)
+                    shapes.add(shape);
+                position = lineEnd + 1;
+            }
+            return shapes;
+        }
+
+        // null for blank lines and # comments
+        private Shape parseLine(int end) {
+            int lineStart = position;
+            skipSpaces(end);
+            if (position == end || in.get(position) == '#')
+                return null;
+
+            int kindStart = position;
+            int kindEnd = tokenEnd(end);
+            boolean circle = matches(kindStart, kindEnd, CIRCLE);
+            if (!circle && !matches(kindStart, kindEnd, SQUARE))
+                throw malformed(lineStart, "unknown shape");
+            position = kindEnd;
+            skipSpaces(end);
+            double size = parseNumber(tokenEnd(end), lineStart);
+            Shape shape = circle ? new Circle(size) : new Square(size);
+
+            for (skipSpaces(end); position < end; skipSpaces(end)) {
+                int tokenEnd = tokenEnd(end);
+                if (in.get(tokenEnd - 1) == '%')
+                    shape = new TransparentShape(shape, (int) parseNumber(tokenEnd - 1, lineStart));
+                else
+                    shape = new ColouredShape(shape, colour(position, tokenEnd));
+                position = tokenEnd;
+            }
+            return shape;
+        }
+
+        // digits with an optional fraction
+        private double parseNumber(int end, int lineStart) {
+            int start = position;
+            long mantissa = 0;
+            int digits = 0;
+            int fractionDigits = -1;
+            for (; position < end; ++position) {
+                byte b = in.get(position);
+                if (b == '.' && fractionDigits < 0) {
+                    fractionDigits = 0;
+                } else if (b >= '0' && b <= '9') {
+                    mantissa = mantissa * 10 + (b - '0');
+                    ++digits;
+                    if (fractionDigits >= 0)
+                        ++fractionDigits;
+                } else {
+                    throw malformed(lineStart, "bad number");
+                }
+            }
+            if (digits == 0)
+                throw malformed(lineStart, "missing number");
+            int scale = Math.max(fractionDigits, 0);
+            // exact fast path, or let the JDK do the hard cases
+            if (digits <= 15 && scale < POWERS_OF_TEN.length)
+                return mantissa / POWERS_OF_TEN[scale];
+            var text = new byte[end - start];
+            in.get(start, text);
+            return Double.parseDouble(new String(text, StandardCharsets.US_ASCII));
+        }
+
+        private String colour(int start, int end) {
+            int hash = 0;
+            for (int i = start; i < end; ++i)
+                hash = 31 * hash + in.get(i);
+            int mask = colourNames.length - 1;
+            int slot = hash & mask;
+            for (; colourBytes[slot] != null; slot = (slot + 1) & mask)
+                if (matches(start, end, colourBytes[slot]))
+                    return colourNames[slot];
+
+            var bytes = new byte[end - start];
+            in.get(start, bytes);
+            colourBytes[slot] = bytes;
+            var name = colourNames[slot] = new String(bytes, StandardCharsets.UTF_8);
+            // the table only ever holds a handful of colours, but keep it at most half full
+            if (++colourCount * 2 > colourNames.length)
+                growColours();
+            return name;
+        }
+
+        private void growColours() {
+            var oldBytes = colourBytes;
+            var oldNames = colourNames;
+            colourBytes = new byte[oldBytes.length * 2][];
+            colourNames = new String[oldNames.length * 2];
+            int mask = colourNames.length - 1;
+            for (int i = 0; i < oldBytes.length; ++i) {
+                if (oldBytes[i] == null)
+                    continue;
+                int hash = 0;
+                for (byte b : oldBytes[i])
+                    hash = 31 * hash + b;
+                int slot = hash & mask;
+                while (colourBytes[slot] != null)
+                    slot = (slot + 1) & mask;
+                colourBytes[slot] = oldBytes[i];
+                colourNames[slot] = oldNames[i];
+            }
+        }
+
+        private boolean matches(int start, int end, byte[] expected) {
+            if (end - start != expected.length)
+                return false;
+            for (int i = 0; i < expected.length; ++i)
+                if (in.get(start + i) != expected[i])
+                    return false;
+            return true;
+        }
+
+        private void skipSpaces(int end) {
+            while (position < end && isSpace(in.get(position)))
+                ++position;
+        }
+
+        private int tokenEnd(int end) {
+            int i = position;
+            while (i < end && !isSpace(in.get(i)))
+                ++i;
+            return i;
+        }
+
+        private static boolean isSpace(byte b) {
+            return b == ' ' || b == '\t' || b == '\r';
+        }
+
+        private IllegalArgumentException malformed(int lineStart, String problem) {
+            return new IllegalArgumentException("Malformed scene line at byte " + (offset + lineStart) + ": " + problem);
+        }
+    }
+}
+
+// BENCHMARK
+// info() throughput, allocation and retained memory per shape, varying how the decoration is built,
+// its depth, how many shape classes the call sites see (mono/bi/megamorphic) and collection size
+//     plain       - decorators without memoisation, the same work as the static composition file's harness
+//     memoised    - ColouredShape/TransparentShape, so steady state is a version() walk and a cache hit
+//     flattened   - DecoratedShape, one base call and one concatenation, with a pooled (flyweight) Decoration
+//     specialised - the memoised chain rebuilt from DecoratorSpecializer's hidden-class copies
+// a small JMH-style loop: warmup iterations, then measured ones, with results sunk so nothing is optimised away
+// every configuration runs in a JVM of its own, so type profiles from one can't leak into the next
+// run with: java DecoratorBenchmark [millis per iteration]
+// or a single configuration in-process: java DecoratorBenchmark millis variant calls depth shapes
+class DecoratorBenchmark {
+    private static final String[] VARIANTS = { "plain", "memoised", "flattened", "specialised" };
+    private static final int[] DEPTHS = { 1, 2, 4, 8, 16, 32 };
+    private static final int[] SIZES = { 1_000, 100_000 };
+    private static final String[] CALL_SITES = { "mono", "bi", "mega" };
+    private static final int WARMUP_ITERATIONS = 3;
+    private static final int MEASURED_ITERATIONS = 5;
+
+    // the base shapes don't cache their info() (neither do the static file's), so every variant
+    // starts from the same work and differs only in how the layers on top are rendered
+    static class PlainCircle implements Shape {
+        private final double radius;
+
+        PlainCircle(double radius) {
+            this.radius = radius;
+        }
+
+        @Override
+        public String info() {
+            return "A circle of radius " + radius;
+        }
+    }
+
+    static class PlainSquare implements Shape {
+        private final double side;
+
+        PlainSquare(double side) {
+            this.side = side;
+        }
+
+        @Override
+        public String info() {
+            return "A square of side " + side;
+        }
+    }
+
+    // more shapes, so call sites can see more receiver classes than the JIT will inline
+    static class Triangle implements Shape {
+        private final double side;
+
+        Triangle(double side) {
+            this.side = side;
+        }
+
+        @Override
+        public String info() {
+            return "A triangle of side " + side;
+        }
+    }
+
+    static class Hexagon implements Shape {
+        private final double side;
+
+        Hexagon(double side) {
+            this.side = side;
+        }
+
+        @Override
+        public String info() {
+            return "A hexagon of side " + side;
+        }
+    }
+
+    static class Ellipse implements Shape {
+        private final double axis;
+
+        Ellipse(double axis) {
+            this.axis = axis;
+        }
+
+        @Override
+        public String info() {
+            return "An ellipse of axis " + axis;
+        }
+    }
+
+    // the decorators as they were before memoisation
+    static class PlainColoured implements Coloured {
+        private final Shape shape;
+        private final String colour;
+
+        PlainColoured(Shape shape, String colour) {
+            this.shape = shape;
+            this.colour = colour;
+        }
+
+        @Override
+        public Shape getShape() {
+            return shape;
+        }
+
+        @Override
+        public String getColour() {
+            return colour;
+        }
+
+        @Override
+        public String info() {
+            return shape.info() + " of " + colour + " colour";
+        }
+    }
+
+    static class PlainTransparent implements Transparent {
+        private final Shape shape;
+        private final int transparency;
+
+        PlainTransparent(Shape shape, int transparency) {
+            this.shape = shape;
+            this.transparency = transparency;
+        }
+
+        @Override
+        public Shape getShape() {
+            return shape;
+        }
+
+        @Override
+        public int getTransparency() {
+            return transparency;
+        }
+
+        @Override
+        public String info() {
+            return shape.info() + " with " + transparency + "% transparency";
+        }
+    }
+
+    private static volatile long sink;
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        long millis = args.length > 0 ? Long.parseLong(args[0]) : 100;
+        if (args.length == 5) {
+            run(args[1], args[2], Integer.parseInt(args[3]), Integer.parseInt(args[4]), millis * 1_000_000);
+            return;
+        }
+
+        System.out.printf("%-11s %-6s %6s %8s %14s %10s %12s%n",
+            "variant", "calls", "depth", "shapes", "info()/s", "bytes/op", "bytes/shape");
+        for (var variant : VARIANTS)
+            for (var callSites : CALL_SITES)
+                for (int depth : DEPTHS)
+                    for (int size : SIZES)
+                        fork(millis, variant, callSites, depth, size);
+    }
+
+    // runs one configuration in a fresh JVM, which prints its own row
+    private static void fork(long millis, String variant, String callSites, int depth, int size)
+            throws IOException, InterruptedException {
+        var java = Path.of(System.getProperty("java.home"), "bin", "java").toString();
+        var process = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+            DecoratorBenchmark.class.getName(), String.valueOf(millis), variant, callSites,
+            String.valueOf(depth), String.valueOf(size))
+            .inheritIO()
+            .start();
+        if (process.waitFor() != 0)
+            throw new IllegalStateException("Benchmark failed: " + variant + " " + callSites + " " + depth + " " + size);
+    }
+
+    private static void run(String variant, String callSites, int depth, int size, long iterationNanos) {
+        long usedBefore = usedHeap();
+        var shapes = new Shape[size];
+        for (int i = 0; i < size; ++i)
+            shapes[i] = build(variant, base(callSites, i), depth);
+
+        for (int i = 0; i < WARMUP_ITERATIONS; ++i)
+            iterate(shapes, iterationNanos);
+        // measured after warmup, so memoised renderings count towards what a shape costs
+        long retained = usedHeap() - usedBefore;
+
+        long ops = 0;
+        long nanos = 0;
+        long bytes = 0;
+        for (int i = 0; i < MEASURED_ITERATIONS; ++i) {
+            long allocatedBefore = allocatedBytes();
+            long start = System.nanoTime();
+            ops += iterate(shapes, iterationNanos);
+            nanos += System.nanoTime() - start;
+            bytes += allocatedBytes() - allocatedBefore;
+        }
+        System.out.printf("%-11s %-6s %6d %8d %14.0f %10.1f %12.1f%n", variant, callSites, depth, size,
+            ops * 1e9 / nanos, (double) bytes / ops, (double) retained / size);
+    }
+
+    private static long iterate(Shape[] shapes, long iterationNanos) {
+        long ops = 0;
+        long total = 0;
+        long deadline = System.nanoTime() + iterationNanos;
+        do {
+            for (var shape : shapes)
+                total += shape.info().length();
+            ops += shapes.length;
+        } while (System.nanoTime() < deadline);
+        sink += total;
+        return ops;
+    }
+
+    private static Shape base(String callSites, int i) {
+        switch (callSites) {
+            case "mono":
+                return new PlainCircle(i);
+            case "bi":
+                return i % 2 == 0 ? new PlainCircle(i) : new PlainSquare(i);
+            case "mega":
+                switch (i % 5) {
+                    case 0: return new PlainCircle(i);
+                    case 1: return new PlainSquare(i);
+                    case 2: return new Triangle(i);
+                    case 3: return new Hexagon(i);
+                    default: return new Ellipse(i);
+                }
+            default:
+                throw new IllegalArgumentException("Unknown call sites " + callSites);
+        }
+    }
+
+    // alternates colour and transparency layers, however the variant builds them
+    private static Shape build(String variant, Shape shape, int depth) {
+        switch (variant) {
+            case "plain":
+                for (int d = 0; d < depth; ++d)
+                    shape = d % 2 == 0 ? new PlainColoured(shape, "red") : new PlainTransparent(shape, 50);
+                return shape;
+            case "memoised":
+                return decorate(shape, depth);
+            case "flattened":
+                var builder = DecoratedShape.builder(shape);
+                for (int d = 0; d < depth; ++d) {
+                    if (d % 2 == 0)
+                        builder.coloured("red");
+                    else
+                        builder.transparent(50);
+                }
+                return builder.build();
+            case "specialised":
+                return DecoratorSpecializer.specialize(decorate(shape, depth));
+            default:
+                throw new IllegalArgumentException("Unknown variant " + variant);
+        }
+    }
+
+    private static Shape decorate(Shape shape, int depth) {
+        for (int d = 0; d < depth; ++d)
+            shape = d % 2 == 0 ? new ColouredShape(shape, "red") : new TransparentShape(shape, 50);
+        return shape;
+    }
+
+    // bytes allocated by this thread so far (0 if the JVM can't tell)
+    private static long allocatedBytes() {
+        var threads = ManagementFactory.getThreadMXBean();
+        if (threads instanceof com.sun.management.ThreadMXBean)
+            return ((com.sun.management.ThreadMXBean) threads).getCurrentThreadAllocatedBytes();
+        return 0;
+    }
+
+    // live heap after a collection - rough, but enough to tell a few bytes per shape from a few hundred
+    private static long usedHeap() {
+        var runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; ++i)
+            System.gc();
+        return runtime.totalMemory() - runtime.freeMemory();
     }
 }
 
 class DriverCode {
-    public static void main(String[] args) {
+    public static void main(String[] args) throws Exception {
         // setup a simple shape
         Circle c = new Circle(10);
         System.out.println(c.info());
@@ -92,5 +1523,83 @@ class DriverCode {
         TransparentShape transGreenCirc = new TransparentShape(new ColouredShape(new Circle(7), "green"), 25);
         System.out.println(transGreenCirc.info());
         // we CAN'T transGreenCirc.scale(2);
+
+        // the same composite, flattened - one object, one pass to render
+        Circle inner = new Circle(7);
+        DecoratedShape flat = DecoratedShape.builder(inner).coloured("green").transparent(25).build();
+        System.out.println(flat.info());
+        System.out.println(DecoratedShape.flatten(transGreenCirc).info().equals(flat.info()));
+        // the base is still there to modify
+        inner.scale(2);
+        System.out.println(flat.info());
+
+        // renderings are cached at every layer, and scaling the circle inside invalidates them all
+        Circle bare = new Circle(3);
+        Shape wrapped = new TransparentShape(new ColouredShape(bare, "blue"), 50);
+        System.out.println(wrapped.info() == wrapped.info());
+        bare.scale(3);
+        System.out.println(wrapped.info());
+
+        // specialised copies of the decorators - same output, but monomorphic call sites
+        Shape special = DecoratorSpecializer.specialize(transGreenCirc);
+        System.out.println(special.info());
+        // and they still unwrap like the originals
+        System.out.println(DecoratedShape.flatten(special).depth() + " layers, "
+            + DecoratorSpecializer.specialize(special).info().equals(special.info()));
+        // stacks of the same classes share their copies
+        System.out.println(special.getClass() == DecoratorSpecializer.specialize(
+            new TransparentShape(new ColouredShape(new Circle(1), "red"), 10)).getClass());
+
+        // a million decorated shapes, but only a handful of distinct decorations between them
+        String[] palette = { "red", "green", "blue" };
+        Shape[] scene = new Shape[1_000_000];
+        for (int i = 0; i < scene.length; ++i)
+            scene[i] = DecoratedShape.builder(new Circle(i)).coloured(palette[i % 3]).transparent(i % 2 * 50).build();
+        System.out.println(scene.length + " shapes share " + DecorationPool.size() + " decorations");
+
+        // the same scene as columns - no per-shape objects at all
+        var store = new ShapeStore();
+        for (int i = 0; i < 1_000_000; ++i) {
+            if (i % 2 == 0)
+                store.addCircle(i, palette[i % 3], 25);
+            else
+                store.addSquare(i, palette[i % 3], ShapeStore.NONE);
+        }
+        store.scaleCircles(2);
+        System.out.println(store.get(4).info());
+        System.out.println(store.get(5).info());
+
+        // export the whole store to a file, rendered in parallel
+        var file = Files.createTempFile("scene", ".txt");
+        try (var renderer = new ShapeRenderer();
+            var out = FileChannel.open(file, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            renderer.render(IntStream.range(0, store.size()).mapToObj(store::get), out);
+        }
+        try (var lines = Files.lines(file)) {
+            System.out.println("Exported " + Files.size(file) / 1024 + " KiB, line 4: " + lines.skip(4).findFirst().get());
+        }
+        Files.delete(file);
+
+        // binary round trip of the decorated scene
+        var binary = Files.createTempFile("scene", ".bin");
+        try (var out = FileChannel.open(binary, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ShapeCodec.write(Arrays.asList(scene), out);
+        }
+        var loaded = ShapeCodec.read(binary);
+        System.out.println("Loaded " + loaded.size() + " shapes from " + Files.size(binary) / 1024 + " KiB: "
+            + loaded.get(1).info());
+        Files.delete(binary);
+
+        // ingesting a text scene description, parsed in parallel chunks
+        var description = Files.createTempFile("scene", ".txt");
+        try (var writer = Files.newBufferedWriter(description)) {
+            for (int i = 0; i < 1_000_000; ++i)
+                writer.write(i % 2 == 0 ? "circle " + i + " " + palette[i % 3] + " 25%\n" : "square " + i + ".5\n");
+        }
+        try (var parser = new SceneParser()) {
+            var parsed = parser.parse(description);
+            System.out.println("Parsed " + parsed.size() + " shapes: " + parsed.get(2).info() + " / " + parsed.get(3).info());
+        }
+        Files.delete(description);
     }
 }
\ No newline at end of file
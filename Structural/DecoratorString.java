@@ -1,6 +1,7 @@
 import java.io.UnsupportedEncodingException;
 import java.lang.invoke.MethodHandles;
 import java.nio.charset.Charset;
+import java.util.BitSet;
 import java.util.Locale;
 import java.util.Optional;
 import java.util.function.Function;
@@ -18,12 +19,17 @@ import java.util.stream.Stream;
 
 class StringProMax { // cannot extend String
     private String s;
+    // derived statistics - the string never changes, so they're computed once, on first use
+    // volatile for safe publication (Stats is immutable, so at worst two threads both compute it)
+    private volatile Stats stats;
 
     public StringProMax(String s) {
         this.s = s;
     }
     
     // extra functionality
+    // SIMPLE method (boxes every char and allocates a couple of strings per char)
+    /*
     public long getVowelCount() {
         // step-by-step
         // map to chars
@@ -31,6 +37,35 @@ class StringProMax { // cannot extend String
         // and count the number of elements
         return s.chars().mapToObj(c -> (char)c).filter(c -> "aeiou".contains(c.toString().toLowerCase())).count();
     }
+    */
+
+    // lookup table for every char, built once with the very same rule as above so the results are identical
+    // (the rule only depends on the char, so non-ASCII text needs no slow path - and 8 KiB as bits)
+    // the rule needs the lower-cased char to be a substring of "aeiou", which only chars that lower-case
+    // to ASCII can manage (Turkish İ among them), so just those ~130 go through it
+    private static final BitSet VOWELS = new BitSet(Character.MAX_VALUE + 1);
+
+    static {
+        for (int c = Character.MIN_VALUE; c <= Character.MAX_VALUE; ++c)
+            if (Character.toLowerCase(c) < 128 && "aeiou".contains(Character.toString((char) c).toLowerCase()))
+                VOWELS.set(c);
+    }
+
+    // counted along with everything else in the one pass over the string
+    public long getVowelCount() {
+        return getStats().getVowels();
+    }
+
+    public Stats getStats() {
+        var result = stats;
+        if (result == null)
+            stats = result = new Stats(s);
+        return result;
+    }
+
+    private static boolean isVowel(char c) {
+        return VOWELS.get(c);
+    }
     
     // display format
     @Override
@@ -297,6 +332,102 @@ class StringProMax { // cannot extend String
     public String resolveConstantDesc(MethodHandles.Lookup lookup) {
         return s.resolveConstantDesc(lookup);
     }
+
+    // one-pass text statistics
+    static final class Stats {
+        // code points per Character.getType category (UPPERCASE_LETTER, DECIMAL_DIGIT_NUMBER, ...)
+        private final int[] histogram = new int[Character.FINAL_QUOTE_PUNCTUATION + 1];
+        private long vowels;
+        private long consonants;
+        private long digits;
+        private long whitespace;
+        private long lines;
+        private long words;
+        private long codePoints;
+
+        private Stats(String s) {
+            boolean inWord = false;
+            boolean inLine = false;
+            for (int i = 0, length = s.length(); i < length; ) {
+                int cp = s.codePointAt(i);
+                i += Character.charCount(cp);
+                ++codePoints;
+                ++histogram[Character.getType(cp)];
+
+                if (cp < Character.MIN_SUPPLEMENTARY_CODE_POINT && isVowel((char) cp))
+                    ++vowels;
+                else if (Character.isLetter(cp))
+                    ++consonants;
+                if (Character.isDigit(cp))
+                    ++digits;
+
+                if (Character.isWhitespace(cp)) {
+                    ++whitespace;
+                    inWord = false;
+                } else if (!inWord) {
+                    ++words;
+                    inWord = true;
+                }
+
+                // line terminators as in String.lines() - \n, \r, or \r\n
+                if (cp == '\n' || cp == '\r') {
+                    ++lines;
+                    inLine = false;
+                    if (cp == '\r' && i < length && s.charAt(i) == '\n') {
+                        ++i;
+                        ++codePoints;
+                        ++whitespace;
+                        ++histogram[Character.CONTROL];
+                    }
+                } else {
+                    inLine = true;
+                }
+            }
+            // an unterminated last line
+            if (inLine)
+                ++lines;
+        }
+
+        public int getCount(int characterType) {
+            return histogram[characterType];
+        }
+
+        public long getVowels() {
+            return vowels;
+        }
+
+        // letters that aren't vowels
+        public long getConsonants() {
+            return consonants;
+        }
+
+        public long getDigits() {
+            return digits;
+        }
+
+        public long getWhitespace() {
+            return whitespace;
+        }
+
+        public long getLines() {
+            return lines;
+        }
+
+        // runs of non-whitespace
+        public long getWords() {
+            return words;
+        }
+
+        public long getCodePoints() {
+            return codePoints;
+        }
+
+        @Override
+        public String toString() {
+            return "vowels=" + vowels + ", consonants=" + consonants + ", digits=" + digits + ", whitespace=" + whitespace
+                + ", lines=" + lines + ", words=" + words + ", codePoints=" + codePoints;
+        }
+    }
 }
 
 class DriverCode {
@@ -305,5 +436,7 @@ class DriverCode {
         var s = new StringProMax("hEllO sOme RanDoM STriNg");
         // result
         System.out.println(s + " " + s.getVowelCount() + " vowels.");
+        // the rest came for free with the vowel count
+        System.out.println(s.getStats());
     }
 }
\ No newline at end of file